@@ -0,0 +1,106 @@
+package bench;
+
+import canvas.CVCanvas;
+import java.util.concurrent.TimeUnit;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of alpha compositing over a whole headless canvas.
+ * image blends a BGRA image with random alpha and rect fills the canvas with a translucent color, both serially and in parallel row bands.
+ * naive is the baseline: the same BGRA blend written per pixel in floating point on one thread.
+ * @author Ricardo
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@State(Scope.Thread)
+public class BlendBenchmark
+{
+    @Param({"640x480", "1280x720", "1920x1080"})
+    public String size;
+
+    @Param({"false", "true"})
+    public boolean parallel;
+
+    private CVCanvas canvas;
+    private Mat overlay;
+    private byte[] src;
+    private byte[] dst;
+    private int width;
+    private int height;
+
+    @Setup
+    public void setup()
+    {
+        int[] s = Images.size(size);
+        width = s[0];
+        height = s[1];
+        canvas = new CVCanvas(true)
+        {
+            @Override
+            public void setup()
+            {
+                noLoop();
+                size(width, height);
+                noStroke();
+                fill(0, 128, 255);
+                fillAlpha(128);
+            }
+        };
+        canvas.parallel(parallel);
+        overlay = Images.random(size, CvType.CV_8UC4);
+        src = new byte[width * height * 4];
+        dst = new byte[width * height * 3];
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        overlay.release();
+    }
+
+    @Benchmark
+    public Mat image()
+    {
+        canvas.image(overlay, 0, 0);
+        return canvas.getCanvasMat();
+    }
+
+    @Benchmark
+    public Mat rect()
+    {
+        canvas.rect(0, 0, width, height);
+        return canvas.getCanvasMat();
+    }
+
+    @Benchmark
+    public Mat naive()
+    {
+        Mat mat = canvas.getCanvasMat();
+        overlay.get(0, 0, src);
+        mat.get(0, 0, dst);
+        for(int i = 0, j = 0; j < dst.length; i += 4, j += 3)
+        {
+            double a = (src[i + 3] & 0xFF) / 255.0;
+            for(int c = 0; c < 3; c++)
+                dst[j + c] = (byte)Math.round((src[i + c] & 0xFF) * a + (dst[j + c] & 0xFF) * (1 - a));
+        }
+        mat.put(0, 0, dst);
+        return mat;
+    }
+}
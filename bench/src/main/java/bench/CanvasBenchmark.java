@@ -0,0 +1,113 @@
+package bench;
+
+import canvas.CVCanvas;
+import canvas.CVSurface;
+import java.util.concurrent.TimeUnit;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of the per frame work of CVCanvas, on a headless canvas with the loop stopped.
+ * image blits a source half the canvas wide at an offset that clips it, as sketches usually do. imageCached draws it with a fixed version, so it is converted once.
+ * present is the conversion of the canvas Mat into the pixels of the window, done by CVSurface.update since convertMat was removed.
+ * presentDirty is the same with a 16x16 changed area, the cost of a frame where a small shape moved. Only CV_8UC3 takes the partial path.
+ * Run with -prof gc to get gc.alloc.rate.norm, the bytes allocated on the Java heap per call.
+ * @author Ricardo
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@State(Scope.Thread)
+public class CanvasBenchmark
+{
+    @Param({"640x480", "1280x720", "1920x1080"})
+    public String size;
+
+    @Param({"CV_8UC1", "CV_8UC3", "CV_8UC4", "CV_16UC1", "CV_32FC3"})
+    public String source;
+
+    private CVCanvas canvas;
+    private CVSurface surface;
+    private Mat image;
+    private Mat frame;
+    private Rect changed;
+    private int x;
+    private int y;
+
+    @Setup
+    public void setup() throws ReflectiveOperationException
+    {
+        int[] s = Images.size(size);
+        int type = CvType.class.getField(source).getInt(null);
+        canvas = new CVCanvas(true)
+        {
+            @Override
+            public void setup()
+            {
+                noLoop();
+                size(s[0], s[1]);
+            }
+
+            @Override
+            public void draw()
+            {
+            }
+        };
+        image = Images.random((s[0] / 2) + "x" + (s[1] / 2), type);
+        x = s[0] * 3 / 4;
+        y = s[1] / 4;
+        frame = Images.random(size, type);
+        surface = new CVSurface();
+        changed = new Rect(s[0] / 2, s[1] / 2, 16, 16);
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        image.release();
+        frame.release();
+    }
+
+    @Benchmark
+    public Mat image()
+    {
+        canvas.image(image, x, y);
+        return canvas.getCanvasMat();
+    }
+
+    @Benchmark
+    public Mat imageCached()
+    {
+        canvas.image(image, x, y, 0);
+        return canvas.getCanvasMat();
+    }
+
+    @Benchmark
+    public CVSurface present()
+    {
+        surface.update(frame);
+        return surface;
+    }
+
+    @Benchmark
+    public CVSurface presentDirty()
+    {
+        surface.update(frame, changed);
+        return surface;
+    }
+}
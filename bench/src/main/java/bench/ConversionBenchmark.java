@@ -0,0 +1,176 @@
+package bench;
+
+import canvas.Conversion;
+import canvas.Converter;
+import canvas.DepthColorizer;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.imgproc.Imgproc;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of the static Conversion methods and of a reused Converter.
+ * Run with -prof gc to get gc.alloc.rate.norm, the bytes allocated on the Java heap per conversion.
+ * @author Ricardo
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConversionBenchmark
+{
+    /**
+     * Conversion of 8 bit images into each BufferedImage type Mat2BufferedImage writes.
+     */
+    @State(Scope.Thread)
+    public static class ToBufferedImage
+    {
+        @Param({"640x480", "1280x720", "1920x1080"})
+        public String size;
+
+        @Param({"TYPE_3BYTE_BGR", "TYPE_4BYTE_ABGR", "TYPE_BYTE_GRAY"})
+        public String target;
+
+        @Param({"1", "3", "4"})
+        public int channels;
+
+        private Mat src;
+        private BufferedImage result;
+        private final Converter converter = new Converter();
+
+        @Setup
+        public void setup() throws ReflectiveOperationException
+        {
+            src = Images.random(size, CvType.makeType(CvType.CV_8U, channels));
+            int type = BufferedImage.class.getField(target).getInt(null);
+            result = new BufferedImage(src.cols(), src.rows(), type);
+        }
+
+        @TearDown
+        public void tearDown()
+        {
+            src.release();
+            converter.release();
+        }
+    }
+
+    /**
+     * Conversion of every depth and channel count into a drawable Mat.
+     */
+    @State(Scope.Thread)
+    public static class ToDrawable
+    {
+        @Param({"640x480", "1280x720", "1920x1080"})
+        public String size;
+
+        @Param({"8U", "8S", "16U", "16S", "32S", "32F", "64F"})
+        public String depth;
+
+        @Param({"1", "3", "4"})
+        public int channels;
+
+        private Mat src;
+        private Mat result;
+        private final Converter converter = new Converter();
+
+        @Setup
+        public void setup()
+        {
+            src = Images.random(size, CvType.makeType(Images.depth(depth), channels));
+            result = new Mat();
+        }
+
+        @TearDown
+        public void tearDown()
+        {
+            src.release();
+            result.release();
+            converter.release();
+        }
+    }
+
+    /**
+     * Display of a 16 bit depth image, through the old two pass chain and through the colormap.
+     */
+    @State(Scope.Thread)
+    public static class Depth
+    {
+        @Param({"640x480", "1280x720", "1920x1080"})
+        public String size;
+
+        private Mat src;
+        private Mat result;
+        private final DepthColorizer colorizer = new DepthColorizer();
+
+        @Setup
+        public void setup()
+        {
+            src = Images.random(size, CvType.CV_16UC1);
+            result = new Mat();
+        }
+
+        @TearDown
+        public void tearDown()
+        {
+            src.release();
+            result.release();
+        }
+    }
+
+    @Benchmark
+    public BufferedImage mat2BufferedImage(ToBufferedImage s)
+    {
+        Conversion.Mat2BufferedImage(s.src, s.result);
+        return s.result;
+    }
+
+    @Benchmark
+    public Mat mat2Drawable(ToDrawable s)
+    {
+        Conversion.Mat2Drawable(s.src, s.result);
+        return s.result;
+    }
+
+    @Benchmark
+    public BufferedImage converterToBufferedImage(ToBufferedImage s)
+    {
+        s.converter.toBufferedImage(s.src, s.result);
+        return s.result;
+    }
+
+    @Benchmark
+    public Mat converterToDrawable(ToDrawable s)
+    {
+        s.converter.toDrawable(s.src, s.result);
+        return s.result;
+    }
+
+    @Benchmark
+    public Mat depthTwoPass(Depth s)
+    {
+        Imgproc.cvtColor(s.src, s.result, Imgproc.COLOR_GRAY2BGR);
+        s.result.convertTo(s.result, CvType.CV_8UC3, 1.0/255.0);
+        return s.result;
+    }
+
+    @Benchmark
+    public Mat depthColorizer(Depth s)
+    {
+        s.colorizer.apply(s.src, s.result);
+        return s.result;
+    }
+}
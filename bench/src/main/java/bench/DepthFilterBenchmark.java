@@ -0,0 +1,81 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import sensor3D.DepthFilter;
+
+/**
+ * Benchmarks of filtering a depth frame in place, with and without the spatial median.
+ * Two random frames between 0.5 and 4 m, with one pixel in eight missing, alternate so both the smoothing and the motion paths are taken.
+ * Each frame is copied before it is filtered, so the times include a copy of the frame.
+ * @author Ricardo
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DepthFilterBenchmark
+{
+    @Param({"640x480", "512x424"})
+    public String size;
+
+    @Param({"0", "3", "5"})
+    public int median;
+
+    private final Mat[] frames = new Mat[2];
+    private Mat depth;
+    private DepthFilter filter;
+    private int next;
+
+    @Setup
+    public void setup()
+    {
+        int[] s = Images.size(size);
+        short[] pixels = new short[s[0] * s[1]];
+        for(int f = 0; f < frames.length; f++)
+        {
+            frames[f] = new Mat(s[1], s[0], CvType.CV_16UC1);
+            Core.randu(frames[f], 5000, 40000);
+            frames[f].get(0, 0, pixels);
+            for(int i = f; i < pixels.length; i += 8)
+                pixels[i] = 0;
+            frames[f].put(0, 0, pixels);
+        }
+        depth = new Mat(s[1], s[0], CvType.CV_16UC1);
+        filter = new DepthFilter();
+        filter.setMedian(median);
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        for(Mat frame : frames)
+            frame.release();
+        depth.release();
+    }
+
+    @Benchmark
+    public Mat filter()
+    {
+        frames[next].copyTo(depth);
+        next ^= 1;
+        filter.filter(depth);
+        return depth;
+    }
+}
@@ -0,0 +1,93 @@
+package bench;
+
+import canvas.CVCanvas;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.opencv.core.Mat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of drawing lines and rectangles on a headless canvas with the loop stopped, in shapes per second.
+ * Each frame clears the canvas and draws 5000 short lines and filled rectangles, alternating, at random places, then redraws.
+ * immediate draws each shape with OpenCV as it is called. serial and parallel record them in the command buffer and rasterize them at the redraw, in one thread or in row bands on every core.
+ * @author Ricardo
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@State(Scope.Thread)
+public class DrawBenchmark
+{
+    private static final int SHAPES = 5000;
+
+    @Param({"1280x720"})
+    public String size;
+
+    @Param({"immediate", "serial", "parallel"})
+    public String mode;
+
+    private CVCanvas canvas;
+    private int[] shapes;
+
+    @Setup
+    public void setup()
+    {
+        int[] s = Images.size(size);
+        Random random = new Random(42);
+        shapes = new int[SHAPES * 4];
+        for(int i = 0; i < shapes.length; i += 4)
+        {
+            shapes[i] = random.nextInt(s[0]);
+            shapes[i + 1] = random.nextInt(s[1]);
+            shapes[i + 2] = shapes[i] + random.nextInt(41) - 20;
+            shapes[i + 3] = shapes[i + 1] + random.nextInt(41) - 20;
+        }
+
+        canvas = new CVCanvas(true)
+        {
+            @Override
+            public void setup()
+            {
+                noLoop();
+                size(s[0], s[1]);
+                stroke(255, 255, 0);
+                fill(0, 128, 255);
+                rectMode(CORNERS);
+            }
+
+            @Override
+            public void draw()
+            {
+            }
+        };
+        canvas.batch(!mode.equals("immediate"));
+        canvas.parallel(mode.equals("parallel"));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SHAPES)
+    public Mat draw()
+    {
+        canvas.background(0);
+        for(int i = 0; i < shapes.length; i += 4)
+            if((i & 4) == 0)
+                canvas.line(shapes[i], shapes[i + 1], shapes[i + 2], shapes[i + 3]);
+            else
+                canvas.rect(shapes[i], shapes[i + 1], shapes[i + 2], shapes[i + 3]);
+        canvas.redraw();
+        return canvas.getCanvasMat();
+    }
+}
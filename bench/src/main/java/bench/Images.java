@@ -0,0 +1,68 @@
+package bench;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+/**
+ * Loads OpenCV and builds the source images of the benchmarks.
+ * @author Ricardo
+ */
+final class Images
+{
+    static
+    {
+        System.loadLibrary("opencv_java247");
+    }
+
+    private Images()
+    {
+    }
+
+    /**
+     * Parses a resolution parameter.
+     * @param size The resolution, as in "640x480".
+     * @return The width and the height.
+     */
+    static int[] size(String size)
+    {
+        int x = size.indexOf('x');
+        return new int[]{Integer.parseInt(size.substring(0, x)), Integer.parseInt(size.substring(x + 1))};
+    }
+
+    /**
+     * Parses a depth parameter.
+     * @param depth One of 8U, 8S, 16U, 16S, 32S, 32F or 64F.
+     * @return The OpenCV depth.
+     */
+    static int depth(String depth)
+    {
+        switch(depth)
+        {
+            case "8U": return CvType.CV_8U;
+            case "8S": return CvType.CV_8S;
+            case "16U": return CvType.CV_16U;
+            case "16S": return CvType.CV_16S;
+            case "32S": return CvType.CV_32S;
+            case "32F": return CvType.CV_32F;
+            case "64F": return CvType.CV_64F;
+            default: throw new IllegalArgumentException("Unknown depth: " + depth);
+        }
+    }
+
+    /**
+     * Creates an image filled with noise, so no conversion can take a shortcut on uniform data.
+     * Floating point images are filled in [0, 1], the range Conversion expects.
+     * @param size The resolution, as in "640x480".
+     * @param type The CvType of the image.
+     * @return The image.
+     */
+    static Mat random(String size, int type)
+    {
+        int[] s = size(size);
+        Mat mat = new Mat(s[1], s[0], type);
+        int depth = CvType.depth(type);
+        Core.randu(mat, 0, depth == CvType.CV_32F || depth == CvType.CV_64F ? 1 : 255);
+        return mat;
+    }
+}
@@ -0,0 +1,99 @@
+package bench;
+
+import canvas.NativeMemory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.imgproc.Imgproc;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of moving a sensor frame from the driver buffer into a Mat, simulated with a direct ByteBuffer as OpenNI hands them out.
+ * put is the old path, through a heap array and Mat.put. native is NativeMemory.copy, a single copy when the JVM provides sun.misc.Unsafe.
+ * rgb includes the cvtColor to BGR that every RGB frame needs.
+ * @author Ricardo
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class IngestBenchmark
+{
+    @Param({"640x480", "1280x1024"})
+    public String size;
+
+    @Param({"put", "native"})
+    public String copy;
+
+    private boolean direct;
+    private ByteBuffer rgb;
+    private ByteBuffer depth;
+    private Mat rgbMat;
+    private Mat depthMat;
+    private byte[] rgbBuffer;
+    private short[] depthBuffer;
+
+    @Setup
+    public void setup()
+    {
+        int[] s = Images.size(size);
+        direct = copy.equals("native");
+        rgb = ByteBuffer.allocateDirect(s[0] * s[1] * 3).order(ByteOrder.LITTLE_ENDIAN);
+        depth = ByteBuffer.allocateDirect(s[0] * s[1] * 2).order(ByteOrder.LITTLE_ENDIAN);
+        rgbMat = new Mat(s[1], s[0], CvType.CV_8UC3);
+        depthMat = new Mat(s[1], s[0], CvType.CV_16UC1);
+        rgbBuffer = new byte[s[0] * s[1] * 3];
+        depthBuffer = new short[s[0] * s[1]];
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        rgbMat.release();
+        depthMat.release();
+    }
+
+    @Benchmark
+    public Mat rgb()
+    {
+        rgb.rewind();
+        if(direct)
+            NativeMemory.copy(rgb, 0, rgbMat);
+        else
+        {
+            rgb.get(rgbBuffer);
+            rgbMat.put(0, 0, rgbBuffer);
+        }
+        Imgproc.cvtColor(rgbMat, rgbMat, Imgproc.COLOR_RGB2BGR);
+        return rgbMat;
+    }
+
+    @Benchmark
+    public Mat depth()
+    {
+        depth.rewind();
+        if(direct)
+            NativeMemory.copy(depth, 0, depthMat);
+        else
+        {
+            depth.asShortBuffer().get(depthBuffer);
+            depthMat.put(0, 0, depthBuffer);
+        }
+        return depthMat;
+    }
+}
@@ -0,0 +1,81 @@
+package bench;
+
+import canvas.CVSurface;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+import javax.swing.ImageIcon;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.imgproc.Imgproc;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of presenting a BGR canvas Mat, before and after CVSurface.
+ * imageIcon is the old path: cvtColor to RGB, get into a heap array, setDataElements into a BufferedImage and wrap it in a new ImageIcon.
+ * surface is CVSurface.update, a single get into the byte array the BufferedImage shares.
+ * Run with -prof gc to get gc.alloc.rate.norm, the bytes allocated on the Java heap per frame.
+ * @author Ricardo
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@State(Scope.Thread)
+public class PresentBenchmark
+{
+    @Param({"640x480", "1280x720", "1920x1080"})
+    public String size;
+
+    private Mat mat;
+    private Mat rgb;
+    private BufferedImage image;
+    private byte[] data;
+    private CVSurface surface;
+
+    @Setup
+    public void setup()
+    {
+        int[] s = Images.size(size);
+        mat = Images.random(size, CvType.CV_8UC3);
+        rgb = new Mat(s[1], s[0], CvType.CV_8UC3);
+        image = new BufferedImage(s[0], s[1], BufferedImage.TYPE_3BYTE_BGR);
+        data = new byte[s[0] * s[1] * 3];
+        surface = new CVSurface();
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        mat.release();
+        rgb.release();
+        surface.release();
+    }
+
+    @Benchmark
+    public ImageIcon imageIcon()
+    {
+        Imgproc.cvtColor(mat, rgb, Imgproc.COLOR_BGR2RGB);
+        rgb.get(0, 0, data);
+        image.getRaster().setDataElements(0, 0, mat.cols(), mat.rows(), data);
+        return new ImageIcon(image);
+    }
+
+    @Benchmark
+    public CVSurface surface()
+    {
+        surface.update(mat);
+        return surface;
+    }
+}
@@ -0,0 +1,82 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import sensor3D.Extrinsics;
+import sensor3D.Intrinsics;
+import sensor3D.Registration;
+
+/**
+ * Benchmarks of depth to color registration with the Kinect 2 layout: 512x424 depth in millimeters and BGRA color, 5 cm apart.
+ * mapColor gathers the color of each depth pixel from a 1920x1080 image. mapDepth projects the depth into the color camera at the given size.
+ * @author Ricardo
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RegistrationBenchmark
+{
+    @Param({"960x540", "1920x1080"})
+    public String colorSize;
+
+    private Mat depth;
+    private Mat color;
+    private Mat registeredColor;
+    private Mat registeredDepth;
+    private Registration registration;
+
+    @Setup
+    public void setup()
+    {
+        depth = new Mat(424, 512, CvType.CV_16UC1);
+        Core.randu(depth, 500, 4500);
+        color = Images.random("1920x1080", CvType.CV_8UC4);
+        registeredColor = new Mat();
+        registeredDepth = new Mat();
+        int[] s = Images.size(colorSize);
+        Intrinsics depthModel = new Intrinsics(512, 424, 365.456, 365.456, 254.878, 205.395, 0.0905, -0.2693, 0, 0, 0.0968);
+        Intrinsics colorModel = new Intrinsics(1920, 1080, 1081.37, 1081.37, 959.5, 539.5).scale(s[0], s[1]);
+        registration = new Registration(depthModel, colorModel, Extrinsics.translation(0.052, 0, 0));
+        registration.setDepthUnit(0.001f);
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        depth.release();
+        color.release();
+        registeredColor.release();
+        registeredDepth.release();
+    }
+
+    @Benchmark
+    public Mat mapColor()
+    {
+        registration.mapColor(depth, color, registeredColor);
+        return registeredColor;
+    }
+
+    @Benchmark
+    public Mat mapDepth()
+    {
+        registration.mapDepth(depth, registeredDepth);
+        return registeredDepth;
+    }
+}
@@ -8,29 +8,26 @@ import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
-import java.awt.image.BufferedImage;
+import java.util.Arrays;
 import java.util.Timer;
-import java.util.TimerTask;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
-import javax.swing.ImageIcon;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import javax.swing.JFrame;
-import javax.swing.JLabel;
+import metrics.Metrics;
 import org.opencv.core.Core;
 import org.opencv.core.CvType;
 import org.opencv.core.Mat;
 import org.opencv.core.Point;
+import org.opencv.core.Rect;
 import org.opencv.core.Scalar;
 import org.opencv.core.Size;
 import org.opencv.highgui.Highgui;
-import org.opencv.imgproc.Imgproc;
 
 /**
  *
  * @author Ricardo Alves
  */
-public abstract class CVCanvas extends JFrame
+public abstract class CVCanvas
 {
     static
     {
@@ -52,15 +49,21 @@ public abstract class CVCanvas extends JFrame
      * Drawing mode.
      */
     public final static int CORNERS = 3;
+    
+    /**
+     * Frame rate that runs the loop as fast as possible.
+     */
+    public final static int UNCAPPED = 0;
 //</editor-fold>
     
 //<editor-fold defaultstate="collapsed" desc="Window and Application">
-    private final JLabel area;
+    private final JFrame frame;
+    private final CVSurface area;
     private volatile Mat mat;
-    private volatile Mat matAux;
-    private BufferedImage image;
-    private byte[] data;
-    private ScheduledExecutorService timerLoop;
+    private volatile SwapChain chain;
+    private int buffers = 3;
+    private FrameScheduler scheduler;
+    private volatile Consumer<Mat> onFrame;
 //</editor-fold>
 
     /**
@@ -68,12 +71,31 @@ public abstract class CVCanvas extends JFrame
      */
     public float frameRate = 0;
     private int fps = 30;
+    private FrameScheduler.Policy framePolicy = FrameScheduler.Policy.FIXED_RATE;
+    private final long timer[] = new long[10];
+    private int timerIndex = 0;
+    private boolean timerFull = false;
     private int rectMode = CORNER;
     private int ellipseMode = CORNER;
-    private Scalar strokeColor = new Scalar(0, 0, 0, 0);
-    private Scalar fillColor = new Scalar(0, 0, 0, 0);
+    private Scalar strokeColor = new Scalar(0, 0, 0, 255);
+    private Scalar fillColor = new Scalar(0, 0, 0, 255);
+    private int strokeAlpha = 255;
+    private int fillAlpha = 255;
     private boolean fill = true;
     private int stroke = 1;
+    private final Converter converter = new Converter();
+    private final Mat drawable = new Mat();
+    private final SourceCache sources = new SourceCache(8);
+    private final CommandBuffer commands = new CommandBuffer();
+    private final Compositor compositor = new Compositor();
+    private boolean imageAlpha = true;
+    private boolean batch = true;
+    private final DirtyRegion dirty = new DirtyRegion();
+    private Scalar backgroundColor;
+    private static final AtomicInteger count = new AtomicInteger();
+    private final String name = getClass().getSimpleName() + " " + count.getAndIncrement();
+    private final FrameStats redrawTimes = new FrameStats();
+    private final CanvasMetrics metrics;
 
     /**
      * Stores information of key events.
@@ -87,27 +109,63 @@ public abstract class CVCanvas extends JFrame
     private volatile boolean loop = true;
 
     /**
-     * Constructs a Canvas
+     * Constructs a Canvas. The canvas runs headless if the JVM has no display.
      */
-    @SuppressWarnings({"OverridableMethodCallInConstructor", "CallToThreadStartDuringObjectConstruction"})
     public CVCanvas()
     {
-        super();
-        area = new JLabel();
-        init();
-        
-        GraphicsDevice device = GraphicsEnvironment.getLocalGraphicsEnvironment().getScreenDevices()[0];
-        DisplayMode oldMode = device.getDisplayMode();  
+        this(GraphicsEnvironment.isHeadless());
+    }
+    
+    /**
+     * Constructs a Canvas.
+     * @param headless If true, setup and draw run against the canvas Mat only, without creating any window.
+     */
+    @SuppressWarnings({"OverridableMethodCallInConstructor", "CallToThreadStartDuringObjectConstruction"})
+    public CVCanvas(boolean headless)
+    {
+        if(headless)
+        {
+            frame = null;
+            area = null;
+            size(640, 480);
+        }
+        else
+        {
+            frame = new JFrame();
+            area = new CVSurface();
+            init();
 
-        int width = oldMode.getWidth();
-        int height = oldMode.getHeight();
-        size(width, height);
+            GraphicsDevice device = GraphicsEnvironment.getLocalGraphicsEnvironment().getScreenDevices()[0];
+            DisplayMode oldMode = device.getDisplayMode();  
+
+            int width = oldMode.getWidth();
+            int height = oldMode.getHeight();
+            size(width, height);
+
+            frame.setVisible(true);
+            frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+            addListeners();
+            
+            Thread presenter = new Thread(this::present, "CVCanvas presenter");
+            presenter.setDaemon(true);
+            presenter.start();
+        }
         
-        setVisible(true);
-        setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        metrics = new CanvasMetrics(name, this, redrawTimes, area);
+        if(!headless)
+            Metrics.register("canvas", "CVCanvas", name, metrics);
         
+        setup();
+        redraw();
+        scheduler = new FrameScheduler(this::frame, "CVCanvas loop");
+        if(loop)
+            loop();
+    }
+    
+    private void addListeners()
+    {
         CVCanvas cv = this;
-        addKeyListener(new KeyAdapter() {
+        frame.addKeyListener(new KeyAdapter() {
             @Override
             public void keyPressed(KeyEvent e)
             {
@@ -135,7 +193,7 @@ public abstract class CVCanvas extends JFrame
                 cv.keyTyped();
             }
         });
-        addMouseListener(new MouseAdapter(){
+        frame.addMouseListener(new MouseAdapter(){
             @Override
             public void mousePressed(MouseEvent e)
             {
@@ -152,7 +210,7 @@ public abstract class CVCanvas extends JFrame
                 cv.mouseReleased();
             }
         });
-        addMouseMotionListener(new MouseAdapter(){
+        frame.addMouseMotionListener(new MouseAdapter(){
             @Override
             public void mouseDragged(MouseEvent e)
             {
@@ -161,26 +219,49 @@ public abstract class CVCanvas extends JFrame
                 cv.mouseDragged();
             }
         });
-        setup();
-        redraw();
-        timerLoop = Executors.newScheduledThreadPool(1);
-        if(loop)
-            loop();
     }
     
     /**
-     * Initializes a jFrame. Can be overrided to change its properties.
+     * Initializes the jFrame. Can be overrided to change its properties. It is not called in headless mode.
      */
     public void init()
     {        
-        setResizable(false);
-        setUndecorated(true);
-        getContentPane().setLayout(null);
-        getContentPane().add(area);
-        pack();
+        frame.setResizable(false);
+        frame.setUndecorated(true);
+        frame.getContentPane().setLayout(null);
+        frame.getContentPane().add(area);
+        frame.pack();
         
-        setExtendedState(getExtendedState()|MAXIMIZED_BOTH);
-        addNotify();
+        frame.setExtendedState(frame.getExtendedState()|JFrame.MAXIMIZED_BOTH);
+        frame.addNotify();
+    }
+    
+    /**
+     * Gets the window of the canvas.
+     * @return The JFrame of the canvas, or null in headless mode.
+     */
+    public JFrame getFrame()
+    {
+        return frame;
+    }
+    
+    /**
+     * Checks if the canvas is running without a window.
+     * @return True if the canvas is headless.
+     */
+    public boolean isHeadless()
+    {
+        return frame == null;
+    }
+    
+    /**
+     * Sets a function that receives every finished frame, after draw and redraw.
+     * The Mat is the canvas itself and must not be drawn on, nor kept after the function returns.
+     * @param r Function that receives the frame, or null to remove it.
+     */
+    public void setOnFrame(Consumer<Mat> r)
+    {
+        onFrame = r;
     }
 
     /**
@@ -193,13 +274,34 @@ public abstract class CVCanvas extends JFrame
     }
     
     /**
-     * Gets the Mat image currently being drawn by CVCanvas.
+     * Gets the Mat image currently being drawn by CVCanvas. Shapes waiting to be drawn are drawn first.
+     * The whole canvas is then presented as changed, since the caller may draw on the Mat directly.
      * @return The Mat image of CVCanvas.
      */
     public Mat getCanvasMat()
     {
+        flush();
+        dirty.addAll();
         return mat;
     }
+    
+    /**
+     * Gets the width of the canvas.
+     * @return The width of the canvas in pixels.
+     */
+    public int getWidth()
+    {
+        return mat.cols();
+    }
+    
+    /**
+     * Gets the height of the canvas.
+     * @return The height of the canvas in pixels.
+     */
+    public int getHeight()
+    {
+        return mat.rows();
+    }
         
 //<editor-fold defaultstate="collapsed" desc="Size">
     /**
@@ -218,17 +320,54 @@ public abstract class CVCanvas extends JFrame
      */
     public void size(int width, int height)
     {
-        setMinimumSize(new Dimension(width, height));
-        setSize(width, height);
-        area.setBounds(0, 0, width, height);
+        if(frame != null)
+        {
+            frame.setMinimumSize(new Dimension(width, height));
+            frame.setSize(width, height);
+            area.setBounds(0, 0, width, height);
+        }
+        commands.clear();
+        dirty.reset(width, height);
+        backgroundColor = null;
         if(mat != null)
             mat.release();
-        mat = new Mat(height, width, CvType.CV_8UC3);
-        mat.setTo(new Scalar(0, 0, 0));
-        matAux = new Mat(height, width, CvType.CV_8UC3);
-        image = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
-        data = new byte[mat.cols() * mat.rows() * (int)mat.elemSize()];
-        setLocationRelativeTo(null);
+        if(frame != null)
+        {
+            SwapChain old = chain;
+            chain = new SwapChain(buffers, height, width, CvType.CV_8UC3);
+            mat = chain.acquire();
+            if(old != null)
+                old.dispose();
+            frame.setLocationRelativeTo(null);
+        }
+        else
+        {
+            mat = new Mat(height, width, CvType.CV_8UC3);
+            mat.setTo(new Scalar(0, 0, 0));
+        }
+    }
+    
+    /**
+     * Sets the number of canvas buffers used to overlap drawing with presentation. The canvas is cleared.
+     * With 2 buffers drawing waits for the previous frame to be displayed, with 3 it never waits and frames not yet displayed are dropped.
+     * @param count The number of buffers, 2 or 3.
+     */
+    public void buffers(int count)
+    {
+        if(count < 2 || count > 3)
+            throw new IllegalArgumentException("Canvas buffers must be 2 or 3: " + count);
+        buffers = count;
+        size(getWidth(), getHeight());
+    }
+    
+    /**
+     * Gets the number of drawn frames that were replaced by a newer one before being displayed.
+     * @return The number of dropped frames.
+     */
+    public long droppedFrames()
+    {
+        SwapChain c = chain;
+        return c == null ? 0 : c.getDropped();
     }
 //</editor-fold>
     
@@ -239,11 +378,8 @@ public abstract class CVCanvas extends JFrame
     public void noLoop()
     {
         loop = false;
-        if(timerLoop!=null)
-        {
-            timerLoop.shutdownNow();
-            while(!timerLoop.isShutdown());
-        }
+        if(scheduler != null)
+            scheduler.stop();
     }
     
     /**
@@ -251,56 +387,95 @@ public abstract class CVCanvas extends JFrame
      */
     public void loop()
     {
-        if(timerLoop == null)
+        if(scheduler == null)
             return;
-        timerLoop.shutdownNow();
-        while(!timerLoop.isShutdown());
-        timerLoop = Executors.newScheduledThreadPool(1);
-        timerLoop.scheduleAtFixedRate(new TimerTask(){
-            long timer[] = new long[10];
-            int index = 0;
-            boolean full = false;
-            
-            @Override
-            public void run()
-            {
-                draw();
-                redraw();
-                
-                long aux = System.currentTimeMillis();
-                if(full)
-                    frameRate = (10000/(float)(aux-timer[index]));
-                timer[index] = aux;
-                index++;
-                if(index == 10)
-                {
-                    index = 0;
-                    full = true;
-                }
-            }
-        }, 0, 1000/fps, TimeUnit.MILLISECONDS);
+        scheduler.start(fps, framePolicy);
+    }
+    
+    private void frame()
+    {
+        draw();
+        redraw();
+
+        long aux = System.nanoTime();
+        if(timerFull)
+            frameRate = (float)(1e10/(aux-timer[timerIndex]));
+        timer[timerIndex] = aux;
+        timerIndex++;
+        if(timerIndex == 10)
+        {
+            timerIndex = 0;
+            timerFull = true;
+        }
     }
     
     /**
      * Sets the sketch to the specified frame rate. It is not recommended to be called on loop function.
-     * @param fps
+     * @param fps The desired frame rate, or UNCAPPED to draw as fast as possible.
      */
     public void frameRate(int fps)
     {
         this.fps = fps;
         loop();
     }
+    
+    /**
+     * Sets how frames are paced. It is not recommended to be called on loop function.
+     * FIXED_RATE skips frames that missed their deadline, FIXED_DELAY waits a full period after each frame and UNCAPPED draws as fast as possible.
+     * @param policy The desired policy.
+     */
+    public void framePolicy(FrameScheduler.Policy policy)
+    {
+        framePolicy = policy;
+        loop();
+    }
+    
+    /**
+     * Gets the statistics of how long draw and redraw take, including the number of missed frame deadlines.
+     * @return The frame time histogram, in nanoseconds.
+     */
+    public FrameStats getFrameStats()
+    {
+        return scheduler == null ? null : scheduler.getFrameTimes();
+    }
+    
+    /**
+     * Gets the statistics of the time between the start of consecutive frames.
+     * @return The frame interval histogram, in nanoseconds.
+     */
+    public FrameStats getFrameIntervals()
+    {
+        return scheduler == null ? null : scheduler.getIntervals();
+    }
+    
+    /**
+     * Gets the statistics of how long redraw takes to flush the batched shapes and present the frame.
+     * @return The redraw time histogram, in nanoseconds.
+     */
+    public FrameStats getRedrawTimes()
+    {
+        return redrawTimes;
+    }
+    
+    /**
+     * Gets the metrics of the canvas. A canvas with a window also registers them as the JMX MBean canvas:type=CVCanvas.
+     * @return The metrics.
+     */
+    public CanvasMetrics getMetrics()
+    {
+        return metrics;
+    }
 //</editor-fold>
     
 //<editor-fold defaultstate="collapsed" desc="Stroke">
 
     /**
      * Sets the stroke color.
-     * @param color The desired color.
+     * @param color The desired color, in BGR order. A fourth value is ignored. Use strokeAlpha for translucent strokes.
      */
     public void stroke(Scalar color)
     {
-        stroke((int)color.val[2], (int)color.val[1], (int)color.val[0], (int)color.val[3]);
+        stroke((int)color.val[2], (int)color.val[1], (int)color.val[0]);
     }
     
     /**
@@ -328,14 +503,22 @@ public abstract class CVCanvas extends JFrame
      * @param r The desired red component.
      * @param g The desired green component.
      * @param b The desired blue component.
-     * @param a The desired alpha component.
+     * @param a Ignored. Use strokeAlpha for translucent strokes.
      */
     public void stroke(int r, int g, int b, int a)
     {
         strokeColor.val[0] = b;
         strokeColor.val[1] = g;
         strokeColor.val[2] = r;
-        strokeColor.val[3] = a;
+    }
+    
+    /**
+     * Sets the opacity of lines and rectangle outlines, whichever overload gives their color. Translucent strokes are blended over the canvas.
+     * @param a The opacity, from 0 for invisible to 255 for opaque, the default.
+     */
+    public void strokeAlpha(int a)
+    {
+        strokeAlpha = Math.max(0, Math.min(a, 255));
     }
     
     /**
@@ -380,11 +563,11 @@ public abstract class CVCanvas extends JFrame
     
     /**
      * Sets the fill color.
-     * @param c The desired color.
+     * @param c The desired color, in BGR order. A fourth value is ignored. Use fillAlpha for translucent fills.
      */
     public void fill(Scalar c)
     {
-        fill((int)c.val[2], (int)c.val[1], (int)c.val[0], (int)c.val[3]);
+        fill((int)c.val[2], (int)c.val[1], (int)c.val[0]);
     }
     
     /**
@@ -392,7 +575,7 @@ public abstract class CVCanvas extends JFrame
      * @param r The red component.
      * @param g The green component.
      * @param b The blue component.
-     * @param a The alpha component.
+     * @param a Ignored. Use fillAlpha for translucent fills.
      */
     public void fill(int r, int g, int b, int a)
     {
@@ -400,7 +583,15 @@ public abstract class CVCanvas extends JFrame
         fillColor.val[0] = b;
         fillColor.val[1] = g;
         fillColor.val[2] = r;
-        fillColor.val[3] = a;
+    }
+    
+    /**
+     * Sets the opacity of filled rectangles, whichever overload gives their color. Translucent fills are blended over the canvas.
+     * @param a The opacity, from 0 for invisible to 255 for opaque, the default.
+     */
+    public void fillAlpha(int a)
+    {
+        fillAlpha = Math.max(0, Math.min(a, 255));
     }
     
     /**
@@ -423,9 +614,7 @@ public abstract class CVCanvas extends JFrame
      */
     public void line(int x1, int y1, int x2, int y2)
     {
-        Point p1 = new Point(x1, y1);
-        Point p2 = new Point(x2, y2);
-        line(p1, p2, stroke, strokeColor);
+        drawLine(x1, y1, x2, y2, stroke, pack(strokeColor, strokeAlpha));
     }
     
     /**
@@ -435,7 +624,7 @@ public abstract class CVCanvas extends JFrame
      */
     public void line(Point p1, Point p2)
     {
-        line(p1, p2, stroke, strokeColor);
+        drawLine(p1.x, p1.y, p2.x, p2.y, stroke, pack(strokeColor, strokeAlpha));
     }
     
     /**
@@ -448,9 +637,7 @@ public abstract class CVCanvas extends JFrame
      */
     public void line(int x1, int y1, int x2, int y2, int thickness)
     {
-        Point p1 = new Point(x1, y1);
-        Point p2 = new Point(x2, y2);
-        line(p1, p2, thickness, strokeColor);
+        drawLine(x1, y1, x2, y2, thickness, pack(strokeColor, strokeAlpha));
     }
     
     /**
@@ -461,7 +648,7 @@ public abstract class CVCanvas extends JFrame
      */
     public void line(Point p1, Point p2, int thickness)
     {
-        line(p1, p2, thickness, strokeColor);
+        drawLine(p1.x, p1.y, p2.x, p2.y, thickness, pack(strokeColor, strokeAlpha));
     }
     
     /**
@@ -470,24 +657,22 @@ public abstract class CVCanvas extends JFrame
      * @param y1 The first point y.
      * @param x2 The second point x.
      * @param y2 The second point y.
-     * @param color The desired color.
+     * @param color The desired color, in BGR order. A fourth value is ignored. The line is drawn with the opacity set by strokeAlpha.
      */
     public void line(int x1, int y1, int x2, int y2, Scalar color)
     {
-        Point p1 = new Point(x1, y1);
-        Point p2 = new Point(x2, y2);
-        line(p1, p2, stroke, color);
+        drawLine(x1, y1, x2, y2, stroke, pack(color, strokeAlpha));
     }
     
     /**
      * Draws a line.
      * @param p1 The first point.
      * @param p2 The second point.
-     * @param color The desired color.
+     * @param color The desired color, in BGR order. A fourth value is ignored. The line is drawn with the opacity set by strokeAlpha.
      */
     public void line(Point p1, Point p2, Scalar color)
     {
-        line(p1, p2, stroke, color);
+        drawLine(p1.x, p1.y, p2.x, p2.y, stroke, pack(color, strokeAlpha));
     }
     
     /**
@@ -497,13 +682,11 @@ public abstract class CVCanvas extends JFrame
      * @param x2 The second point x.
      * @param y2 The second point y.
      * @param thickness The desired thickness.
-     * @param color The desired color.
+     * @param color The desired color, in BGR order. A fourth value is ignored. The line is drawn with the opacity set by strokeAlpha.
      */
     public void line(int x1, int y1, int x2, int y2, int thickness, Scalar color)
     {
-        Point p1 = new Point(x1, y1);
-        Point p2 = new Point(x2, y2);
-        line(p1, p2, thickness, color);
+        drawLine(x1, y1, x2, y2, thickness, pack(color, strokeAlpha));
     }
     
     /**
@@ -511,13 +694,38 @@ public abstract class CVCanvas extends JFrame
      * @param p1 The first point.
      * @param p2 The second point.
      * @param thickness The desired thickness.
-     * @param color The desired color.
+     * @param color The desired color, in BGR order. A fourth value is ignored. The line is drawn with the opacity set by strokeAlpha.
      */
     public void line(Point p1, Point p2, int thickness, Scalar color)
+    {
+        drawLine(p1.x, p1.y, p2.x, p2.y, thickness, pack(color, strokeAlpha));
+    }
+    
+    private void drawLine(double x1, double y1, double x2, double y2, int thickness, int color)
     {
         if(stroke == 0)
             return;
-        Core.line(mat, p1, p2, color, thickness, Core.LINE_AA, 0);
+        int margin = thickness / 2 + 2;
+        dirty.add((int)Math.floor(Math.min(x1, x2)) - margin, (int)Math.floor(Math.min(y1, y2)) - margin,
+                (int)Math.ceil(Math.max(x1, x2)) + margin + 1, (int)Math.ceil(Math.max(y1, y2)) + margin + 1);
+        if(batch || color >>> 24 != 255)
+        {
+            commands.line((int)Math.round(x1), (int)Math.round(y1), (int)Math.round(x2), (int)Math.round(y2), thickness, color);
+            if(!batch)
+                flush();
+        }
+        else
+            Core.line(mat, new Point(x1, y1), new Point(x2, y2), scalar(color), thickness, Core.LINE_AA, 0);
+    }
+    
+    private static int pack(Scalar color, int alpha)
+    {
+        return CommandBuffer.color(color.val[0], color.val[1], color.val[2], alpha);
+    }
+    
+    private static Scalar scalar(int color)
+    {
+        return new Scalar(color & 0xFF, color >> 8 & 0xFF, color >> 16 & 0xFF);
     }
 //</editor-fold>
 
@@ -541,7 +749,7 @@ public abstract class CVCanvas extends JFrame
      */
     public void rect(int x, int y, int param1, int param2)
     {
-        rect(x, y, param1, param2, rectMode, (int)fillColor.val[2], (int)fillColor.val[1], (int)fillColor.val[0], (int)fillColor.val[3]);
+        rect(x, y, param1, param2, rectMode, (int)fillColor.val[2], (int)fillColor.val[1], (int)fillColor.val[0], 255);
     }
     
     /**
@@ -554,33 +762,99 @@ public abstract class CVCanvas extends JFrame
      * @param r The red component.
      * @param g The green component.
      * @param b The blue component.
-     * @param a The alpha component.
+     * @param a Ignored. The fill is drawn with the opacity set by fillAlpha.
      */
     public void rect(int x, int y, int param1, int param2, int mode, int r, int g, int b, int a)
     {
-        Scalar fillC = new Scalar(b, g, r, a);
         switch(mode)
         {
             case CORNER:
-                drawRect(new Point(x, y), new Point(x+param1, y+param2), fillC, stroke, strokeColor);
+                drawRect(x, y, x+param1, y+param2, b, g, r);
             break;
             case CENTER:
                 float aux1 = param1/(float)2;
                 float aux2 = param2/(float)2;
-                drawRect(new Point(x-aux1, y-aux2), new Point(x+aux1, y+aux2), fillC, stroke, strokeColor);
+                drawRect(x-aux1, y-aux2, x+aux1, y+aux2, b, g, r);
             break;
             case CORNERS:
-                drawRect(new Point(x, y), new Point(param1, param2), fillC, stroke, strokeColor);
+                drawRect(x, y, param1, param2, b, g, r);
             break;
         }
     }
     
-    private void drawRect(Point p1, Point p2, Scalar fillColor, int stroke, Scalar strokeColor)
+    private void drawRect(double x1, double y1, double x2, double y2, int b, int g, int r)
     {
+        int margin = stroke > 0 ? stroke / 2 + 2 : 1;
+        dirty.add((int)Math.floor(Math.min(x1, x2)) - margin, (int)Math.floor(Math.min(y1, y2)) - margin,
+                (int)Math.ceil(Math.max(x1, x2)) + margin + 1, (int)Math.ceil(Math.max(y1, y2)) + margin + 1);
+        int fillPacked = CommandBuffer.color(b, g, r, fillAlpha);
+        int strokePacked = pack(strokeColor, strokeAlpha);
+        if(batch || fill && fillAlpha < 255 || stroke > 0 && strokeAlpha < 255)
+        {
+            int px1 = (int)Math.round(x1), py1 = (int)Math.round(y1), px2 = (int)Math.round(x2), py2 = (int)Math.round(y2);
+            if(fill)
+                commands.fillRect(px1, py1, px2, py2, fillPacked);
+            if(stroke > 0)
+                commands.strokeRect(px1, py1, px2, py2, stroke, strokePacked);
+            if(!batch)
+                flush();
+            return;
+        }
+        Point p1 = new Point(x1, y1);
+        Point p2 = new Point(x2, y2);
         if(fill)
-            Core.rectangle(mat, p1, p2, fillColor, -1, Core.LINE_AA, 0);
+            Core.rectangle(mat, p1, p2, scalar(fillPacked), -1, Core.LINE_AA, 0);
         if(stroke > 0)
-            Core.rectangle(mat, p1, p2, strokeColor, stroke, Core.LINE_AA, 0);
+            Core.rectangle(mat, p1, p2, scalar(strokePacked), stroke, Core.LINE_AA, 0);
+    }
+//</editor-fold>
+    
+//<editor-fold defaultstate="collapsed" desc="Batching">
+
+    /**
+     * Sets if lines and rectangles are recorded and drawn all at once by redraw, or drawn one by one with OpenCV as they are called.
+     * Batching is on by default. Recording allocates nothing and the shapes are drawn in Java with a single read and write of the canvas.
+     * @param enabled True to batch, false to draw immediately.
+     */
+    public void batch(boolean enabled)
+    {
+        flush();
+        batch = enabled;
+    }
+    
+    /**
+     * Sets if large batches of shapes and translucent images are drawn in parallel, split in row bands on the common ForkJoin pool.
+     * It is on by default. The result is the same as drawing them serially on the loop thread.
+     * @param enabled True to draw in parallel, false to draw on the loop thread.
+     */
+    public void parallel(boolean enabled)
+    {
+        commands.setParallel(enabled);
+        compositor.setParallel(enabled);
+    }
+    
+    /**
+     * Gets the number of batched shapes drawn since the canvas was created.
+     * @return The number of shapes.
+     */
+    public long getShapes()
+    {
+        return commands.getShapes();
+    }
+    
+    /**
+     * Gets the throughput of the batched drawing.
+     * @return The shapes drawn per second of drawing time, or 0 if none was drawn yet.
+     */
+    public double getShapeRate()
+    {
+        long time = commands.getTime();
+        return time == 0 ? 0 : commands.getShapes() * 1e9 / time;
+    }
+    
+    private void flush()
+    {
+        commands.flush(mat);
     }
 //</editor-fold>
     
@@ -592,7 +866,7 @@ public abstract class CVCanvas extends JFrame
      */
     public void background(Scalar s)
     {
-        mat.setTo(s);
+        clear(s);
     }
     
     /**
@@ -601,7 +875,7 @@ public abstract class CVCanvas extends JFrame
      */
     public void background(int gray)
     {
-        mat.setTo(new Scalar(gray, gray, gray));
+        clear(new Scalar(gray, gray, gray));
     }
     
     /**
@@ -612,7 +886,23 @@ public abstract class CVCanvas extends JFrame
      */
     public void background(int r, int g, int b)
     {
-        mat.setTo(new Scalar(b, g, r));
+        clear(new Scalar(b, g, r));
+    }
+    
+    private void clear(Scalar s)
+    {
+        commands.clear();
+        boolean same = backgroundColor != null && Arrays.equals(backgroundColor.val, s.val);
+        Rect drawn = dirty.clear(same);
+        if(drawn == null)
+            mat.setTo(s);
+        else if(drawn.width > 0 && drawn.height > 0)
+        {
+            Mat region = mat.submat(drawn);
+            region.setTo(s);
+            region.release();
+        }
+        backgroundColor = s.clone();
     }
 //</editor-fold>
     
@@ -648,6 +938,7 @@ public abstract class CVCanvas extends JFrame
      */
     public void save(String name)
     {
+        flush();
         Highgui.imwrite(name, mat);
     }
     
@@ -664,6 +955,15 @@ public abstract class CVCanvas extends JFrame
     
 //<editor-fold defaultstate="collapsed" desc="Draw Image">
 
+    /**
+     * Sets how 16 bit single channel images, such as depth and IR, are drawn by image.
+     * @param colorizer The colormap to use, or null to scale them to 8 bits.
+     */
+    public void colorMap(DepthColorizer colorizer)
+    {
+        converter.setColorizer(colorizer);
+    }
+
     /**
      * Draws an image on the specified point of the canvas.
      * @param src The image to be drawn.
@@ -675,45 +975,79 @@ public abstract class CVCanvas extends JFrame
     }
     
     /**
-     * Draws an image on the specified point of the canvas.
+     * Draws an image on the specified point of the canvas. The parts outside the canvas are clipped.
+     * 8 bit BGRA images are blended over the canvas by their alpha, unless imageAlpha is off.
+     * Other images that are not 8 bit BGR are converted on every call, into memory reused between calls.
      * @param src The image to be drawn.
      * @param x The starting x of the canvas.
      * @param y The starting y of the canvas.
      */
     public void image(Mat src, int x, int y)
     {
-        if(x>mat.width() || y>mat.height())
+        if(src.type() == CvType.CV_8UC3 || imageAlpha && src.type() == CvType.CV_8UC4)
+            blit(src, x, y);
+        else
+        {
+            converter.toDrawable(src, drawable);
+            blit(drawable, x, y);
+        }
+    }
+    
+    /**
+     * Draws an image on the specified point of the canvas, converting it only if its version changed since it was last drawn.
+     * The last few converted images are cached by the identity of the Mat and the version, which suits logos and sprites drawn every frame.
+     * @param src The image to be drawn.
+     * @param x The starting x of the canvas.
+     * @param y The starting y of the canvas.
+     * @param version The version of the content of the image, to be changed whenever its pixels change, such as the sequence of a sensor frame.
+     */
+    public void image(Mat src, int x, int y, long version)
+    {
+        if(src.type() == CvType.CV_8UC3 || imageAlpha && src.type() == CvType.CV_8UC4)
+            blit(src, x, y);
+        else
+            blit(sources.get(src, version, converter), x, y);
+    }
+    
+    /**
+     * Sets if the alpha channel of 8 bit BGRA images is used to blend them over the canvas. It is on by default.
+     * Sources that leave it undefined, such as BGRX cameras, should turn it off to be drawn opaque.
+     * @param enabled True to blend by alpha, false to ignore it.
+     */
+    public void imageAlpha(boolean enabled)
+    {
+        imageAlpha = enabled;
+    }
+    
+    /**
+     * Gets how often image found its source already converted.
+     * @return The share of versioned image calls that were not converted, from 0 to 1.
+     */
+    public double getImageCacheHitRate()
+    {
+        long total = sources.getHits() + sources.getMisses();
+        return total == 0 ? 0 : (double)sources.getHits() / total;
+    }
+    
+    private void blit(Mat image, int x, int y)
+    {
+        int x0 = Math.max(x, 0);
+        int y0 = Math.max(y, 0);
+        int x1 = Math.min(x + image.cols(), mat.cols());
+        int y1 = Math.min(y + image.rows(), mat.rows());
+        if(x0 >= x1 || y0 >= y1)
             return;
+        flush();
+        dirty.add(x0, y0, x1, y1);
         
-        int bottom=0, right=0;
-        int bottomE=0, rightE=0;
-        
-        Mat image = new Mat();
-        Conversion.Mat2Drawable(src, image);
-        
-        if(image.width()+x<mat.width())
-            right = mat.width()-(image.width()+x);
-        else if(image.width()+x>mat.width())
-            rightE = image.width()-(mat.width()-x);
-        
-        if(image.height()+y<mat.height())
-            bottom = mat.height()-(image.height()+y);
-        else if(image.height()+y>mat.height())
-            bottomE = image.height()-(mat.height()-y);
-        
-        image.adjustROI(0, -bottomE, 0, -rightE);
-        mat.adjustROI(-y, -bottom, -x, -right);
-        if(image.elemSize()!=3)
-            image.convertTo(image, CvType.CV_8UC3, 1, 0);
-        if(image.channels()==1)
-            Imgproc.cvtColor(image, mat, Imgproc.COLOR_GRAY2BGR);
-        else if(image.channels()==4)
-            Imgproc.cvtColor(image, mat, Imgproc.COLOR_BGRA2BGR);
+        Mat from = image.submat(y0 - y, y1 - y, x0 - x, x1 - x);
+        Mat to = mat.submat(y0, y1, x0, x1);
+        if(image.type() == CvType.CV_8UC4)
+            compositor.over(from, to);
         else
-            image.copyTo(mat);
-        
-        mat.adjustROI(y, bottom, x, right);
-        image.release();
+            from.copyTo(to);
+        from.release();
+        to.release();
     }
 //</editor-fold>
     
@@ -722,22 +1056,71 @@ public abstract class CVCanvas extends JFrame
      */
     public final void redraw()
     {
-        convertMat();
-        area.setIcon(new ImageIcon(image));
+        long start = System.nanoTime();
+        flush();
+        Consumer<Mat> r = onFrame;
+        if(r != null)
+            r.accept(mat);
+        if(chain != null)
+            swap();
+        long time = System.nanoTime() - start;
+        redrawTimes.record(time);
+        Metrics.redraw(name, time);
     }
     
-    private void convertMat()
+    private void swap()
     {
-        Imgproc.cvtColor(mat, matAux, Imgproc.COLOR_BGR2RGB);
-        matAux.get(0, 0, data);
-        image.getRaster().setDataElements(0, 0, mat.cols(), mat.rows(), data);
-   }
-    
+        Mat presented = mat;
+        long version = dirty.commit();
+        chain.present(presented, version);
+        mat = chain.acquire();
+        Rect changed = dirty.since(chain.getVersion(mat), version);
+        if(!dirty.isPartial(changed))
+            presented.copyTo(mat);
+        else if(changed.width > 0 && changed.height > 0)
+        {
+            Mat from = presented.submat(changed);
+            Mat to = mat.submat(changed);
+            from.copyTo(to);
+            from.release();
+            to.release();
+        }
+    }
     
+    private void present()
+    {
+        long shown = -1;
+        while(true)
+        {
+            SwapChain c = chain;
+            Mat presented;
+            try
+            {
+                presented = c.acquirePresented();
+            }
+            catch(InterruptedException e)
+            {
+                return;
+            }
+            if(presented == null)
+                continue;
+            try
+            {
+                long version = c.getVersion(presented);
+                area.update(presented, dirty.since(shown, version));
+                shown = version;
+            }
+            finally
+            {
+                c.release(presented);
+            }
+        }
+    }
     
+
 //<editor-fold defaultstate="collapsed" desc="Extendable code">
     /**
-     * Overridable method. Called once in the constructor.
+     * Overridable method. Called once in the constructor, also in headless mode.
      */
     public void setup(){};
 
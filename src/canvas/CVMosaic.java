@@ -0,0 +1,331 @@
+package canvas;
+
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.swing.JComponent;
+import javax.swing.JFrame;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * A window that shows many streams as tiles of one image.
+ * Each named stream gets the next free tile the first time it is shown. show copies the Mat into the mailbox of the tile and returns.
+ * On every refresh tick the tiles that received a Mat are converted, scaled to fit and written into the shared image, and only those tiles are repainted,
+ * so all the streams cost one conversion each and a single paint.
+ * @author Ricardo
+ */
+public class CVMosaic extends JFrame
+{
+    private final int columns;
+    private final int rows;
+    private final int tileWidth;
+    private final int tileHeight;
+    private final Mat canvas;
+    private final BufferedImage image;
+    private final byte[] data;
+    private final Object lock = new Object();
+    private final Object state = new Object();
+    private final Surface surface = new Surface();
+    private final ConcurrentHashMap<String, Tile> tiles = new ConcurrentHashMap<>();
+    private final List<Tile> order = new ArrayList<>();
+    private final FrameScheduler scheduler = new FrameScheduler(this::tick, "CVMosaic refresh");
+    private volatile Runnable closing;
+    private volatile boolean closed;
+
+    /**
+     * Creates and shows a mosaic window refreshed at 30 fps.
+     * @param name The title of the window.
+     * @param columns The number of tiles in a row.
+     * @param rows The number of rows of tiles.
+     * @param tileWidth The width of each tile.
+     * @param tileHeight The height of each tile.
+     */
+    public CVMosaic(String name, int columns, int rows, int tileWidth, int tileHeight)
+    {
+        super(name);
+        this.columns = columns;
+        this.rows = rows;
+        this.tileWidth = tileWidth;
+        this.tileHeight = tileHeight;
+        int width = columns * tileWidth;
+        int height = rows * tileHeight;
+        canvas = new Mat(height, width, CvType.CV_8UC3, new Scalar(0, 0, 0));
+        image = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+        data = ((DataBufferByte)image.getRaster().getDataBuffer()).getData();
+
+        surface.setPreferredSize(new Dimension(width, height));
+        getContentPane().add(surface);
+        pack();
+        setResizable(false);
+        setLocationRelativeTo(null);
+        setVisible(true);
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e)
+            {
+                Runnable r = closing;
+                if(r != null)
+                    r.run();
+                close();
+            }
+        });
+        scheduler.start(30, FrameScheduler.Policy.FIXED_RATE);
+    }
+
+    /**
+     * Posts a Mat to the tile of a stream. The Mat is copied, so the caller can reuse it as soon as this returns.
+     * @param name The name of the stream.
+     * @param mat The OpenCV Mat to be displayed.
+     * @return True if the stream has a tile, false if every tile is taken by other streams or the window is closed.
+     */
+    public boolean show(String name, Mat mat)
+    {
+        if(name == null || mat == null)
+            return false;
+        Tile tile = tile(name);
+        if(tile == null)
+            return false;
+        tile.mailbox.post(mat, -1);
+        return true;
+    }
+
+    /**
+     * Sets how 16 bit single channel Mats of a stream, such as depth and IR, are displayed.
+     * @param name The name of the stream. It gets a tile if it has none yet.
+     * @param colorizer The colormap to use, or null to scale them to 8 bits.
+     */
+    public void setColorizer(String name, DepthColorizer colorizer)
+    {
+        Tile tile = tile(name);
+        if(tile != null)
+            tile.colorizer = colorizer;
+    }
+
+    /**
+     * Sets how often the tiles are updated. It does nothing once the window is closed.
+     * @param fps The refresh rate.
+     */
+    public void setRefreshRate(int fps)
+    {
+        synchronized(state)
+        {
+            if(!closed)
+                scheduler.start(fps, FrameScheduler.Policy.FIXED_RATE);
+        }
+    }
+
+    /**
+     * Sets a function that runs when the user closes the window.
+     * @param r Function that runs on close.
+     */
+    public void setOnClose(Runnable r)
+    {
+        closing = r;
+    }
+
+    /**
+     * Gets the number of Mats of a stream replaced by a newer one before a refresh tick took them.
+     * @param name The name of the stream.
+     * @return The number of coalesced Mats, or 0 if the stream has no tile.
+     */
+    public long getCoalesced(String name)
+    {
+        Tile tile = name == null ? null : tiles.get(name);
+        return tile == null ? 0 : tile.mailbox.getCoalesced();
+    }
+
+    /**
+     * Gets the number of Mats of a stream that could not be drawn, such as empty Mats or Mats of an unsupported type.
+     * A failing stream keeps its last image and does not stop the other tiles.
+     * @param name The name of the stream.
+     * @return The number of failed Mats, or 0 if the stream has no tile.
+     */
+    public long getFailures(String name)
+    {
+        Tile tile = name == null ? null : tiles.get(name);
+        return tile == null ? 0 : tile.failures.get();
+    }
+
+    /**
+     * Gets the last exception thrown while drawing a Mat of a stream.
+     * @param name The name of the stream.
+     * @return The exception, or null if none was thrown or the stream has no tile.
+     */
+    public RuntimeException getLastError(String name)
+    {
+        Tile tile = name == null ? null : tiles.get(name);
+        return tile == null ? null : tile.lastError;
+    }
+
+    /**
+     * Stops refreshing, closes the window and frees the native memory of the tiles. Streams shown afterwards are ignored.
+     */
+    public void close()
+    {
+        synchronized(state)
+        {
+            if(closed)
+                return;
+            closed = true;
+            scheduler.stop();
+        }
+        synchronized(order)
+        {
+            for(Tile tile : order)
+                tile.release();
+        }
+        canvas.release();
+        dispose();
+    }
+
+    private Tile tile(String name)
+    {
+        Tile tile = tiles.get(name);
+        if(tile != null)
+            return tile;
+        synchronized(order)
+        {
+            tile = tiles.get(name);
+            if(tile == null && !closed && order.size() < columns * rows)
+            {
+                int index = order.size();
+                tile = new Tile(index % columns * tileWidth, index / columns * tileHeight);
+                order.add(tile);
+                tiles.put(name, tile);
+            }
+            return tile;
+        }
+    }
+
+    private void tick()
+    {
+        Tile[] current;
+        synchronized(order)
+        {
+            current = order.toArray(new Tile[order.size()]);
+        }
+        for(Tile tile : current)
+        {
+            Mailbox.Letter letter = tile.mailbox.take();
+            if(letter == null)
+                continue;
+            try
+            {
+                tile.draw(letter.mat);
+                surface.repaint(tile.x, tile.y, tileWidth, tileHeight);
+            }
+            catch(RuntimeException e)
+            {
+                tile.failures.incrementAndGet();
+                tile.lastError = e;
+            }
+            finally
+            {
+                tile.mailbox.recycle(letter);
+            }
+        }
+    }
+
+    private final class Tile
+    {
+        private final int x;
+        private final int y;
+        private final Mat region;
+        private final byte[] pixels = new byte[tileWidth * tileHeight * 3];
+        private final Mailbox mailbox = new Mailbox();
+        private final Converter converter = new Converter();
+        private final Mat drawable = new Mat();
+        private final AtomicLong failures = new AtomicLong();
+        private volatile RuntimeException lastError;
+        private volatile DepthColorizer colorizer;
+        private int sourceWidth = -1;
+        private int sourceHeight = -1;
+        private Mat fit;
+        private Size fitSize;
+
+        private Tile(int x, int y)
+        {
+            this.x = x;
+            this.y = y;
+            region = canvas.submat(new Rect(x, y, tileWidth, tileHeight));
+        }
+
+        private void draw(Mat mat)
+        {
+            converter.setColorizer(colorizer);
+            converter.toDrawable(mat, drawable);
+            if(drawable.cols() != sourceWidth || drawable.rows() != sourceHeight)
+                layout(drawable.cols(), drawable.rows());
+            if(fit == null)
+                return;
+            Imgproc.resize(drawable, fit, fitSize, 0, 0, Imgproc.INTER_AREA);
+
+            region.get(0, 0, pixels);
+            int stride = tileWidth * 3;
+            int width = canvas.cols() * 3;
+            synchronized(lock)
+            {
+                for(int row = 0; row < tileHeight; row++)
+                    System.arraycopy(pixels, row * stride, data, (y + row) * width + x * 3, stride);
+            }
+        }
+
+        private void layout(int width, int height)
+        {
+            sourceWidth = width;
+            sourceHeight = height;
+            region.setTo(new Scalar(0, 0, 0));
+            if(fit != null)
+                fit.release();
+            if(width == 0 || height == 0)
+            {
+                fit = null;
+                return;
+            }
+            double scale = Math.min((double)tileWidth / width, (double)tileHeight / height);
+            int w = Math.max(1, (int)Math.round(width * scale));
+            int h = Math.max(1, (int)Math.round(height * scale));
+            fit = region.submat(new Rect((tileWidth - w) / 2, (tileHeight - h) / 2, w, h));
+            fitSize = new Size(w, h);
+        }
+
+        private void release()
+        {
+            mailbox.close();
+            converter.release();
+            drawable.release();
+            if(fit != null)
+                fit.release();
+            region.release();
+        }
+    }
+
+    private final class Surface extends JComponent
+    {
+        private Surface()
+        {
+            setOpaque(true);
+        }
+
+        @Override
+        protected void paintComponent(Graphics g)
+        {
+            synchronized(lock)
+            {
+                g.drawImage(image, 0, 0, null);
+            }
+        }
+    }
+}
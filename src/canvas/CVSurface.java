@@ -0,0 +1,194 @@
+package canvas;
+
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import javax.swing.JComponent;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+
+/**
+ * Swing component that displays an OpenCV Mat.
+ * The BufferedImage shares its byte array with the pixels read from the Mat, so presenting a BGR frame is a single copy and no allocation.
+ * Frames are written to a back image and swapped with the painted one, so the Event Dispatch Thread never paints a half written frame.
+ * When the caller knows which area of the frame changed, only that area is copied and repainted.
+ * @author Ricardo
+ */
+public class CVSurface extends JComponent
+{
+    private final Object lock = new Object();
+    private BufferedImage front;
+    private BufferedImage back;
+    private final Converter converter = new Converter();
+    private boolean painted = true;
+    private long dropped;
+    private Rect previous;
+    private byte[] pixels = new byte[0];
+
+    /**
+     * Creates an empty surface.
+     */
+    public CVSurface()
+    {
+        setOpaque(true);
+    }
+
+    /**
+     * Copies a Mat into the surface and schedules a repaint.
+     * Mats that are not 8 bit BGR are converted on the way, without allocating.
+     * It must not be called by more than one thread at a time.
+     * @param mat The OpenCV Mat to be displayed.
+     */
+    public void update(Mat mat)
+    {
+        allocate(mat.cols(), mat.rows());
+        converter.toBufferedImage(mat, back);
+        swap();
+        previous = null;
+        repaint();
+    }
+
+    /**
+     * Copies the changed area of a Mat into the surface and schedules a repaint of that area.
+     * The back image is one update behind the painted one, so the area changed by the previous update is copied as well.
+     * The whole Mat is copied instead when the Mat is not 8 bit BGR, its size changed, the changed area is unknown or it covers half of the frame or more.
+     * It must not be called by more than one thread at a time.
+     * @param mat The OpenCV Mat to be displayed.
+     * @param changed The area of the Mat that differs from the Mat of the previous update, or null if it is not known.
+     */
+    public void update(Mat mat, Rect changed)
+    {
+        if(changed == null || previous == null || mat.type() != CvType.CV_8UC3 || back == null || back.getWidth() != mat.cols() || back.getHeight() != mat.rows())
+        {
+            update(mat);
+            previous = changed;
+            return;
+        }
+
+        Rect region = union(previous, changed);
+        previous = changed;
+        if(region.width == 0 || region.height == 0)
+            return;
+        if((long)region.width * region.height * 2 >= (long)mat.cols() * mat.rows())
+            converter.toBufferedImage(mat, back);
+        else
+            copy(mat, region);
+        swap();
+        if(changed.width > 0 && changed.height > 0)
+            repaint(changed.x, changed.y, changed.width, changed.height);
+    }
+
+    /**
+     * Sets how 16 bit single channel Mats, such as depth and IR, are displayed.
+     * @param colorizer The colormap to use, or null to scale them to 8 bits.
+     */
+    public void setColorizer(DepthColorizer colorizer)
+    {
+        converter.setColorizer(colorizer);
+    }
+
+    /**
+     * Gets the number of frames that were replaced by a newer one before the Event Dispatch Thread painted them.
+     * @return The number of dropped frames.
+     */
+    public long getDropped()
+    {
+        synchronized(lock)
+        {
+            return dropped;
+        }
+    }
+
+    /**
+     * Gets the time full updates take to convert the Mat into the surface.
+     * @return The histogram of the conversion times, in nanoseconds.
+     */
+    public FrameStats getConversionTimes()
+    {
+        return converter.getTimes();
+    }
+
+    /**
+     * Frees the native memory used to convert Mats. The surface can still be updated and allocates it again.
+     * It must not be called while an update runs.
+     */
+    public void release()
+    {
+        converter.release();
+    }
+
+    /**
+     * Gets the image currently painted by the surface.
+     * @return The BufferedImage of the surface, or null if nothing was displayed yet.
+     */
+    public BufferedImage getImage()
+    {
+        synchronized(lock)
+        {
+            return front;
+        }
+    }
+
+    private void allocate(int width, int height)
+    {
+        if(back != null && back.getWidth() == width && back.getHeight() == height)
+            return;
+
+        back = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+        setPreferredSize(new Dimension(width, height));
+    }
+
+    private void copy(Mat mat, Rect region)
+    {
+        int stride = region.width * 3;
+        if(pixels.length < stride * region.height)
+            pixels = new byte[stride * region.height];
+        Mat view = mat.submat(region);
+        view.get(0, 0, pixels);
+        view.release();
+
+        byte[] data = ((DataBufferByte)back.getRaster().getDataBuffer()).getData();
+        int width = back.getWidth() * 3;
+        for(int row = 0; row < region.height; row++)
+            System.arraycopy(pixels, row * stride, data, (region.y + row) * width + region.x * 3, stride);
+    }
+
+    private static Rect union(Rect a, Rect b)
+    {
+        if(a.width == 0 || a.height == 0)
+            return b;
+        if(b.width == 0 || b.height == 0)
+            return a;
+        int x0 = Math.min(a.x, b.x);
+        int y0 = Math.min(a.y, b.y);
+        int x1 = Math.max(a.x + a.width, b.x + b.width);
+        int y1 = Math.max(a.y + a.height, b.y + b.height);
+        return new Rect(x0, y0, x1 - x0, y1 - y0);
+    }
+
+    private void swap()
+    {
+        synchronized(lock)
+        {
+            BufferedImage aux = front;
+            front = back;
+            back = aux;
+            if(!painted)
+                dropped++;
+            painted = false;
+        }
+    }
+
+    @Override
+    protected void paintComponent(Graphics g)
+    {
+        synchronized(lock)
+        {
+            if(front != null)
+                g.drawImage(front, 0, 0, null);
+            painted = true;
+        }
+    }
+}
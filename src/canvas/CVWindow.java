@@ -5,20 +5,34 @@ import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
-import java.awt.image.BufferedImage;
-import java.util.ArrayList;
-import javax.swing.ImageIcon;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import javax.management.ObjectName;
 import javax.swing.JFrame;
-import javax.swing.JLabel;
+import javax.swing.SwingUtilities;
+import metrics.Metrics;
 import org.opencv.core.Mat;
 
 /**
- *
+ * Windows that display OpenCV Mats, found by name.
+ * show copies the Mat into the mailbox of the window and returns. A render thread converts and displays the newest Mat of each window,
+ * so the thread that calls show never waits for Swing. Mats posted faster than they are displayed replace each other and are counted as coalesced.
+ * A Mat that cannot be displayed, such as an empty one or one of an unsupported type, is counted as a failure in the metrics of its window and the render thread goes on.
+ * Each window registers its WindowMetrics as the JMX MBean canvas:type=CVWindow.
+ * Destroying a window frees its copies at once, and the render thread frees its conversion memory once it is done with the window.
  * @author Ricardo
  */
 public class CVWindow extends JFrame
 {   
-    private static final ArrayList<CVWindow> janelas = new ArrayList();
+    private static final ConcurrentHashMap<String, CVWindow> janelas = new ConcurrentHashMap<>();
+    private static final LinkedBlockingQueue<CVWindow> pending = new LinkedBlockingQueue<>();
+    
+    static
+    {
+        Thread renderer = new Thread(CVWindow::render, "CVWindow render");
+        renderer.setDaemon(true);
+        renderer.start();
+    }
     
     /**
      * Creates a new window to display an OpenCV Mat.
@@ -28,10 +42,7 @@ public class CVWindow extends JFrame
     {
         if(name == null)
             return;
-        for(CVWindow janela : janelas)
-            if(janela.getTitle().equals(name))
-                return;
-        new CVWindow(name);
+        janelas.computeIfAbsent(name, CVWindow::new);
     }
     
     /**
@@ -41,14 +52,21 @@ public class CVWindow extends JFrame
      */
     public static void setOnClose(String name, Runnable r)
     {
-        if(name == null)
-            return;
-
-        for(CVWindow janela : janelas)
-            if(janela.getTitle().equals(name))
-            {
-                janela.closing = r;
-            }
+        CVWindow janela = get(name);
+        if(janela != null)
+            janela.closing = r;
+    }
+    
+    /**
+     * Sets how 16 bit single channel Mats, such as depth and IR, are displayed in a window.
+     * @param name Name of the window.
+     * @param colorizer The colormap to use, or null to scale them to 8 bits.
+     */
+    public static void setColorizer(String name, DepthColorizer colorizer)
+    {
+        CVWindow janela = get(name);
+        if(janela != null)
+            janela.area.setColorizer(colorizer);
     }
     
     /**
@@ -59,12 +77,15 @@ public class CVWindow extends JFrame
     {
         if(name == null)
             return;
-        for(CVWindow janela : janelas)
-            if(janela.getTitle().equals(name))
-            {
-                janelas.remove(janela);
-                janela.dispose();
-            }
+        CVWindow janela = janelas.remove(name);
+        if(janela != null)
+        {
+            Metrics.unregister(janela.id);
+            janela.closed = true;
+            janela.mailbox.close();
+            pending.offer(janela);
+            janela.dispose();
+        }
     }
     
     /**
@@ -72,54 +93,133 @@ public class CVWindow extends JFrame
      */
     public static void destroyAll()
     {
-        try
-        {
-            while(janelas.size() > 0)
-            {
-                CVWindow janela = janelas.get(0);
-                janelas.remove(janela);
-                janela.dispose();
-            }
-        }
-        catch(java.util.ConcurrentModificationException e)
-        {
-            
-        }
+        for(String name : janelas.keySet())
+            destroy(name);
     }
     
     /**
-     * Update the window with a mat.
+     * Update the window with a mat. The Mat is copied, so the caller can reuse it as soon as this returns.
      * @param name The name of the window.
      * @param mat The OpenCV Mat to be displayed.
-     * @return
+     * @return True if the window exists.
      */
     public static boolean show(String name, Mat mat)
     {
-        if(name == null)
-            return false;
+        return show(name, mat, Metrics.getOrigin());
+    }
+    
+    /**
+     * Update the window with a mat shown from another thread than the one that received the sensor frame, such as a pipeline stage.
+     * When called from a Sensor3D callback, show finds the arrival time of the frame on its own.
+     * @param name The name of the window.
+     * @param mat The OpenCV Mat to be displayed.
+     * @param origin The System.nanoTime the sensor frame shown arrived at, as given by SensorFrame.getArrival, to measure the display latency, or -1 if unknown.
+     * @return True if the window exists.
+     */
+    public static boolean show(String name, Mat mat, long origin)
+    {
         if(mat == null)
             return false;
-        for(CVWindow janela : janelas)
-            if(janela.getTitle().equals(name))
+        CVWindow janela = get(name);
+        if(janela == null)
+            return false;
+        janela.post(mat, origin);
+        return true;
+    }
+    
+    /**
+     * Gets the number of Mats of a window replaced by a newer one before the render thread took them.
+     * @param name The name of the window.
+     * @return The number of coalesced Mats, or 0 if there is no such window.
+     */
+    public static long getCoalesced(String name)
+    {
+        CVWindow janela = get(name);
+        return janela == null ? 0 : janela.mailbox.getCoalesced();
+    }
+    
+    /**
+     * Gets the number of frames of a window rendered but replaced by a newer one before Swing painted them.
+     * @param name The name of the window.
+     * @return The number of dropped frames, or 0 if there is no such window.
+     */
+    public static long getDropped(String name)
+    {
+        CVWindow janela = get(name);
+        return janela == null ? 0 : janela.area.getDropped();
+    }
+    
+    /**
+     * Gets the metrics of a window.
+     * @param name The name of the window.
+     * @return The metrics, or null if there is no such window.
+     */
+    public static WindowMetrics getMetrics(String name)
+    {
+        CVWindow janela = get(name);
+        return janela == null ? null : janela.metrics;
+    }
+    
+    private static CVWindow get(String name)
+    {
+        return name == null ? null : janelas.get(name);
+    }
+    
+    private static void render()
+    {
+        while(true)
+        {
+            CVWindow janela;
+            try
+            {
+                janela = pending.take();
+            }
+            catch(InterruptedException e)
+            {
+                return;
+            }
+            if(janela.closed)
+            {
+                janela.area.release();
+                continue;
+            }
+            Mailbox.Letter letter = janela.mailbox.take();
+            if(letter == null)
+                continue;
+            try
+            {
+                janela.redraw(letter.mat);
+                janela.metrics.displayed(letter.origin);
+            }
+            catch(RuntimeException e)
             {
-                janela.size((int)mat.size().width, (int)mat.size().height);
-                janela.redraw(mat);
-                return true;
+                janela.metrics.failed(e);
             }
-        return false;
+            finally
+            {
+                janela.mailbox.recycle(letter);
+            }
+        }
     }
     
     
     
-    private Runnable closing;
-    private final JLabel area;
-    private BufferedImage image;
+    private volatile Runnable closing;
+    private volatile boolean closed;
+    private final CVSurface area;
+    private final Mailbox mailbox = new Mailbox();
+    private final WindowMetrics metrics;
+    private final ObjectName id;
+    private int width = -1;
+    private int height = -1;
     
     
     private CVWindow(final String name)
     {
         super();
-        area = new JLabel();
+        area = new CVSurface();
+        metrics = new WindowMetrics(name, mailbox::getCoalesced, area::getDropped, area.getConversionTimes());
+        id = Metrics.register("canvas", "CVWindow", name, metrics);
         
         setTitle(name);
         getContentPane().setLayout(null);
@@ -141,12 +241,18 @@ public class CVWindow extends JFrame
             @Override
             public synchronized void windowClosing(WindowEvent e)
             {
-                if(closing != null)
-                    closing.run();
+                Runnable r = closing;
+                if(r != null)
+                    r.run();
                 destroy(name);
             }
         });
-        janelas.add(this);
+    }
+    
+    private void post(Mat mat, long origin)
+    {
+        if(mailbox.post(mat, origin))
+            pending.offer(this);
     }
     
     private void size(int width, int height)
@@ -157,13 +263,18 @@ public class CVWindow extends JFrame
         setSize(width, height);
         area.setBounds(0, 0, width, height);
         setLocationRelativeTo(null);
-
-        image = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
     }
     
     private void redraw(Mat mat)
     {
-        Conversion.Mat2BufferedImage(mat, image);
-        area.setIcon(new ImageIcon(image));
+        int w = mat.cols();
+        int h = mat.rows();
+        if(w != width || h != height)
+        {
+            width = w;
+            height = h;
+            SwingUtilities.invokeLater(() -> size(w, h));
+        }
+        area.update(mat);
     }
 }
@@ -0,0 +1,115 @@
+package canvas;
+
+/**
+ * The metrics of a CVCanvas: its frame rate, the times of its frames, redraws and conversions, and the frames Swing dropped.
+ * It reads the statistics the canvas keeps anyway, so it costs nothing until it is read.
+ * @author Ricardo
+ */
+public final class CanvasMetrics implements CanvasMetricsMBean
+{
+    private final String name;
+    private final CVCanvas canvas;
+    private final FrameStats redraws;
+    private final CVSurface area;
+
+    CanvasMetrics(String name, CVCanvas canvas, FrameStats redraws, CVSurface area)
+    {
+        this.name = name;
+        this.canvas = canvas;
+        this.redraws = redraws;
+        this.area = area;
+    }
+
+    @Override
+    public String getName()
+    {
+        return name;
+    }
+
+    @Override
+    public double getFrameRate()
+    {
+        return canvas.frameRate;
+    }
+
+    @Override
+    public long getFrames()
+    {
+        FrameStats times = canvas.getFrameStats();
+        return times == null ? 0 : times.getCount();
+    }
+
+    @Override
+    public long getMissedDeadlines()
+    {
+        FrameStats times = canvas.getFrameStats();
+        return times == null ? 0 : times.getMissedDeadlines();
+    }
+
+    @Override
+    public double getMeanFrameTime()
+    {
+        FrameStats times = canvas.getFrameStats();
+        return times == null ? 0 : times.getMean() / 1e6;
+    }
+
+    @Override
+    public double getP99FrameTime()
+    {
+        FrameStats times = canvas.getFrameStats();
+        return times == null ? 0 : times.getP99() / 1e6;
+    }
+
+    @Override
+    public double getMeanRedraw()
+    {
+        return redraws.getMean() / 1e6;
+    }
+
+    @Override
+    public double getP99Redraw()
+    {
+        return redraws.getP99() / 1e6;
+    }
+
+    @Override
+    public double getMaxRedraw()
+    {
+        return redraws.getMax() / 1e6;
+    }
+
+    @Override
+    public double getMeanConversion()
+    {
+        return area == null ? 0 : area.getConversionTimes().getMean() / 1e6;
+    }
+
+    @Override
+    public double getP99Conversion()
+    {
+        return area == null ? 0 : area.getConversionTimes().getP99() / 1e6;
+    }
+
+    @Override
+    public long getDropped()
+    {
+        return area == null ? 0 : area.getDropped();
+    }
+
+    @Override
+    public void reset()
+    {
+        redraws.reset();
+        FrameStats times = canvas.getFrameStats();
+        if(times != null)
+            times.reset();
+        if(area != null)
+            area.getConversionTimes().reset();
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s: %.1f fps redraw %s", name, getFrameRate(), redraws);
+    }
+}
@@ -0,0 +1,85 @@
+package canvas;
+
+/**
+ * The JMX view of a CVCanvas. Times are in milliseconds.
+ * @author Ricardo
+ */
+public interface CanvasMetricsMBean
+{
+    /**
+     * Gets the name of the canvas.
+     * @return The class of the sketch and a number.
+     */
+    String getName();
+
+    /**
+     * Gets the frame rate of the sketch, over its last 10 frames.
+     * @return The frames per second.
+     */
+    double getFrameRate();
+
+    /**
+     * Gets the number of frames drawn by the loop.
+     * @return The number of frames.
+     */
+    long getFrames();
+
+    /**
+     * Gets the number of frames the loop skipped because they could not start on time.
+     * @return The number of missed deadlines.
+     */
+    long getMissedDeadlines();
+
+    /**
+     * Gets the mean time of draw and redraw.
+     * @return The time in milliseconds.
+     */
+    double getMeanFrameTime();
+
+    /**
+     * Gets the 99th percentile of the time of draw and redraw.
+     * @return The time in milliseconds.
+     */
+    double getP99FrameTime();
+
+    /**
+     * Gets the mean time of redraw, which flushes the batched shapes and presents the frame.
+     * @return The time in milliseconds.
+     */
+    double getMeanRedraw();
+
+    /**
+     * Gets the 99th percentile of the time of redraw.
+     * @return The time in milliseconds.
+     */
+    double getP99Redraw();
+
+    /**
+     * Gets the longest redraw.
+     * @return The time in milliseconds.
+     */
+    double getMaxRedraw();
+
+    /**
+     * Gets the mean time the conversion of a frame for the window takes.
+     * @return The time in milliseconds.
+     */
+    double getMeanConversion();
+
+    /**
+     * Gets the 99th percentile of the conversion time.
+     * @return The time in milliseconds.
+     */
+    double getP99Conversion();
+
+    /**
+     * Gets the number of frames presented but replaced before Swing painted them.
+     * @return The number of dropped frames.
+     */
+    long getDropped();
+
+    /**
+     * Clears the times and counters.
+     */
+    void reset();
+}
@@ -0,0 +1,393 @@
+package canvas;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+import org.opencv.core.Mat;
+
+/**
+ * Records lines and rectangles into a primitive array and rasterizes them in bulk.
+ * Recording allocates nothing. A flush reads the bounding box of the recorded shapes from the canvas once, draws every shape in order in Java and writes it back once,
+ * instead of crossing JNI and allocating Points and Scalars for every shape.
+ * Lines are antialiased by their coverage of each pixel and have round caps, like OpenCV thick lines.
+ * The alpha of the color is multiplied by the coverage and the shape is blended over the canvas, so translucent shapes are drawn as such.
+ * The outline of a rectangle is drawn in one pass, by its distance to the border, so its corners are not blended twice.
+ * When the shapes cover enough pixels, the region is split in row bands that are read, drawn and written back in parallel on the common ForkJoin pool.
+ * Every band replays all the shapes clipped to its rows, and each pixel only depends on the shapes that cover it, so the result is the same as drawing serially.
+ * @author Ricardo
+ */
+final class CommandBuffer
+{
+    static final int LINE = 0;
+    static final int FILL_RECT = 1;
+    static final int STROKE_RECT = 2;
+
+    private static final int RECORD = 7;
+    private static final int MIN_BAND_ROWS = 16;
+    private static final int MAX_BANDS = Runtime.getRuntime().availableProcessors() * 2;
+    private static final long MIN_PARALLEL_PIXELS = 1 << 16;
+
+    private int[] records = new int[RECORD * 256];
+    private int count;
+    private byte[][] pixels = new byte[1][];
+    private boolean parallel = true;
+    private long shapes;
+    private long time;
+
+    /**
+     * Packs a color.
+     * @param b The blue component.
+     * @param g The green component.
+     * @param r The red component.
+     * @param a The alpha component.
+     * @return The color as an int, blue in the lowest byte.
+     */
+    static int color(double b, double g, double r, double a)
+    {
+        return clamp(b) | clamp(g) << 8 | clamp(r) << 16 | clamp(a) << 24;
+    }
+
+    private static int clamp(double v)
+    {
+        return v <= 0 ? 0 : v >= 255 ? 255 : (int)Math.round(v);
+    }
+
+    /**
+     * Records a line.
+     * @param x1 The first point x.
+     * @param y1 The first point y.
+     * @param x2 The second point x.
+     * @param y2 The second point y.
+     * @param thickness The thickness in pixels.
+     * @param color The packed color.
+     */
+    void line(int x1, int y1, int x2, int y2, int thickness, int color)
+    {
+        add(LINE, x1, y1, x2, y2, thickness, color);
+    }
+
+    /**
+     * Records a filled rectangle, corners included.
+     * @param x1 The first corner x.
+     * @param y1 The first corner y.
+     * @param x2 The opposite corner x.
+     * @param y2 The opposite corner y.
+     * @param color The packed color.
+     */
+    void fillRect(int x1, int y1, int x2, int y2, int color)
+    {
+        add(FILL_RECT, Math.min(x1, x2), Math.min(y1, y2), Math.max(x1, x2), Math.max(y1, y2), 0, color);
+    }
+
+    /**
+     * Records the outline of a rectangle.
+     * @param x1 The first corner x.
+     * @param y1 The first corner y.
+     * @param x2 The opposite corner x.
+     * @param y2 The opposite corner y.
+     * @param thickness The thickness in pixels.
+     * @param color The packed color.
+     */
+    void strokeRect(int x1, int y1, int x2, int y2, int thickness, int color)
+    {
+        add(STROKE_RECT, x1, y1, x2, y2, thickness, color);
+    }
+
+    private void add(int op, int x1, int y1, int x2, int y2, int thickness, int color)
+    {
+        int i = count * RECORD;
+        if(i + RECORD > records.length)
+            records = Arrays.copyOf(records, records.length * 2);
+        records[i] = op;
+        records[i + 1] = x1;
+        records[i + 2] = y1;
+        records[i + 3] = x2;
+        records[i + 4] = y2;
+        records[i + 5] = thickness;
+        records[i + 6] = color;
+        count++;
+    }
+
+    /**
+     * Gets the number of shapes waiting to be drawn.
+     * @return The number of recorded shapes.
+     */
+    int size()
+    {
+        return count;
+    }
+
+    /**
+     * Discards the recorded shapes.
+     */
+    void clear()
+    {
+        count = 0;
+    }
+
+    /**
+     * Sets if large batches are drawn in parallel row bands.
+     * @param enabled True to draw in parallel, false to always draw on the calling thread.
+     */
+    void setParallel(boolean enabled)
+    {
+        parallel = enabled;
+    }
+
+    /**
+     * Checks if large batches are drawn in parallel row bands.
+     * @return True if drawing in parallel is enabled.
+     */
+    boolean isParallel()
+    {
+        return parallel;
+    }
+
+    /**
+     * Gets the number of shapes drawn since the buffer was created.
+     * @return The number of shapes.
+     */
+    long getShapes()
+    {
+        return shapes;
+    }
+
+    /**
+     * Gets the time spent drawing shapes since the buffer was created.
+     * @return The time in nanoseconds.
+     */
+    long getTime()
+    {
+        return time;
+    }
+
+    /**
+     * Draws the recorded shapes on a BGR canvas and discards them.
+     * @param mat The CV_8UC3 canvas.
+     */
+    void flush(Mat mat)
+    {
+        if(count == 0)
+            return;
+        long start = System.nanoTime();
+
+        int x0 = Integer.MAX_VALUE, y0 = Integer.MAX_VALUE, x1 = Integer.MIN_VALUE, y1 = Integer.MIN_VALUE;
+        long covered = 0;
+        for(int i = 0; i < count * RECORD; i += RECORD)
+        {
+            int margin = records[i] == FILL_RECT ? 0 : records[i + 5] / 2 + 2;
+            int sx0 = Math.min(records[i + 1], records[i + 3]) - margin;
+            int sy0 = Math.min(records[i + 2], records[i + 4]) - margin;
+            int sx1 = Math.max(records[i + 1], records[i + 3]) + margin + 1;
+            int sy1 = Math.max(records[i + 2], records[i + 4]) + margin + 1;
+            x0 = Math.min(x0, sx0);
+            y0 = Math.min(y0, sy0);
+            x1 = Math.max(x1, sx1);
+            y1 = Math.max(y1, sy1);
+            covered += (long)(sx1 - sx0) * (sy1 - sy0);
+        }
+        x0 = Math.max(x0, 0);
+        y0 = Math.max(y0, 0);
+        x1 = Math.min(x1, mat.cols());
+        y1 = Math.min(y1, mat.rows());
+
+        if(x0 < x1 && y0 < y1)
+        {
+            int bands = parallel && covered >= MIN_PARALLEL_PIXELS ? Math.max(1, Math.min(MAX_BANDS, (y1 - y0) / MIN_BAND_ROWS)) : 1;
+            if(pixels.length < bands)
+                pixels = Arrays.copyOf(pixels, bands);
+            Mat region = mat.submat(y0, y1, x0, x1);
+            int ox = x0, oy = y0;
+            if(bands == 1)
+                band(region, 0, 1, ox, oy);
+            else
+                IntStream.range(0, bands).parallel().forEach(band -> band(region, band, bands, ox, oy));
+            region.release();
+        }
+
+        shapes += count;
+        count = 0;
+        time += System.nanoTime() - start;
+    }
+
+    private void band(Mat region, int band, int bands, int ox, int oy)
+    {
+        int width = region.cols();
+        int top = region.rows() * band / bands;
+        int height = region.rows() * (band + 1) / bands - top;
+        byte[] buffer = pixels[band];
+        if(buffer == null || buffer.length < width * height * 3)
+            pixels[band] = buffer = new byte[width * height * 3];
+
+        Mat rows = bands == 1 ? region : region.rowRange(top, top + height);
+        rows.get(0, 0, buffer);
+        rasterize(buffer, width, height, ox, oy + top, 0, height);
+        rows.put(0, 0, buffer);
+        if(rows != region)
+            rows.release();
+    }
+
+    /**
+     * Draws every recorded shape, in order, clipped to a band of rows.
+     * @param pixels The BGR pixels of the region, with packed rows.
+     * @param width The width of the region.
+     * @param height The height of the region.
+     * @param ox The x of the region on the canvas.
+     * @param oy The y of the region on the canvas.
+     * @param top The first row of the band, in the region.
+     * @param bottom The row after the last row of the band, in the region.
+     */
+    void rasterize(byte[] pixels, int width, int height, int ox, int oy, int top, int bottom)
+    {
+        int[] r = records;
+        for(int i = 0; i < count * RECORD; i += RECORD)
+        {
+            int ax = r[i + 1] - ox, ay = r[i + 2] - oy, bx = r[i + 3] - ox, by = r[i + 4] - oy;
+            int thickness = r[i + 5];
+            int color = r[i + 6];
+            switch(r[i])
+            {
+                case LINE:
+                    segment(pixels, width, top, bottom, ax, ay, bx, by, thickness, color);
+                break;
+                case FILL_RECT:
+                    fill(pixels, width, top, bottom, ax, ay, bx, by, color);
+                break;
+                case STROKE_RECT:
+                    outline(pixels, width, top, bottom, ax, ay, bx, by, thickness, color);
+                break;
+            }
+        }
+    }
+
+    private static void fill(byte[] pixels, int width, int top, int bottom, int x1, int y1, int x2, int y2, int color)
+    {
+        int xs = Math.max(x1, 0);
+        int xe = Math.min(x2, width - 1);
+        int ys = Math.max(y1, top);
+        int ye = Math.min(y2, bottom - 1);
+        int alpha = alpha(color);
+        if(alpha == 0)
+            return;
+        if(alpha < 256)
+        {
+            int cb = color & 0xFF, cg = color >> 8 & 0xFF, cr = color >> 16 & 0xFF;
+            for(int y = ys; y <= ye; y++)
+                for(int x = xs, p = (y * width + xs) * 3; x <= xe; x++, p += 3)
+                    blend(pixels, p, alpha, cb, cg, cr);
+            return;
+        }
+        byte b = (byte)color, g = (byte)(color >> 8), r = (byte)(color >> 16);
+        for(int y = ys; y <= ye; y++)
+            for(int x = xs, p = (y * width + xs) * 3; x <= xe; x++, p += 3)
+            {
+                pixels[p] = b;
+                pixels[p + 1] = g;
+                pixels[p + 2] = r;
+            }
+    }
+
+    private static void segment(byte[] pixels, int width, int top, int bottom, int ax, int ay, int bx, int by, int thickness, int color)
+    {
+        double extent = Math.max(thickness, 1) / 2.0 + 0.5;
+        double dx = bx - ax;
+        double dy = by - ay;
+        double length2 = dx * dx + dy * dy;
+        double length = Math.sqrt(length2);
+        int minX = (int)Math.floor(Math.min(ax, bx) - extent);
+        int maxX = (int)Math.ceil(Math.max(ax, bx) + extent);
+        int ys = Math.max((int)Math.floor(Math.min(ay, by) - extent), top);
+        int ye = Math.min((int)Math.ceil(Math.max(ay, by) + extent), bottom - 1);
+        int cb = color & 0xFF, cg = color >> 8 & 0xFF, cr = color >> 16 & 0xFF;
+        int alpha = alpha(color);
+        if(alpha == 0)
+            return;
+
+        for(int y = ys; y <= ye; y++)
+        {
+            int xs = minX, xe = maxX;
+            if(Math.abs(dy) > 1e-9)
+            {
+                double xc = ax + (y - ay) * dx / dy;
+                double half = extent * length / Math.abs(dy);
+                xs = Math.max(xs, (int)Math.floor(xc - half));
+                xe = Math.min(xe, (int)Math.ceil(xc + half));
+            }
+            xs = Math.max(xs, 0);
+            xe = Math.min(xe, width - 1);
+
+            for(int x = xs; x <= xe; x++)
+            {
+                double t = length2 == 0 ? 0 : ((x - ax) * dx + (y - ay) * dy) / length2;
+                t = t < 0 ? 0 : t > 1 ? 1 : t;
+                double ex = (x - ax) - t * dx;
+                double ey = (y - ay) - t * dy;
+                double coverage = extent - Math.sqrt(ex * ex + ey * ey);
+                if(coverage > 0)
+                    blend(pixels, (y * width + x) * 3, coverage >= 1 ? alpha : (int)(coverage * alpha), cb, cg, cr);
+            }
+        }
+    }
+
+    private static void outline(byte[] pixels, int width, int top, int bottom, int ax, int ay, int bx, int by, int thickness, int color)
+    {
+        double extent = Math.max(thickness, 1) / 2.0 + 0.5;
+        int reach = (int)Math.ceil(extent);
+        int left = Math.min(ax, bx), right = Math.max(ax, bx), upper = Math.min(ay, by), lower = Math.max(ay, by);
+        int xs = Math.max(left - reach, 0);
+        int xe = Math.min(right + reach, width - 1);
+        int ys = Math.max(upper - reach, top);
+        int ye = Math.min(lower + reach, bottom - 1);
+        int cb = color & 0xFF, cg = color >> 8 & 0xFF, cr = color >> 16 & 0xFF;
+        int alpha = alpha(color);
+        if(alpha == 0)
+            return;
+
+        for(int y = ys; y <= ye; y++)
+        {
+            boolean edge = y <= upper + reach || y >= lower - reach;
+            for(int x = xs; x <= xe; x++)
+            {
+                if(!edge && x > left + reach && x < right - reach)
+                {
+                    x = right - reach - 1;
+                    continue;
+                }
+                double distance;
+                if(x >= left && x <= right && y >= upper && y <= lower)
+                    distance = Math.min(Math.min(x - left, right - x), Math.min(y - upper, lower - y));
+                else
+                {
+                    double ex = x - Math.max(left, Math.min(x, right));
+                    double ey = y - Math.max(upper, Math.min(y, lower));
+                    distance = Math.sqrt(ex * ex + ey * ey);
+                }
+                double coverage = extent - distance;
+                if(coverage > 0)
+                    blend(pixels, (y * width + x) * 3, coverage >= 1 ? alpha : (int)(coverage * alpha), cb, cg, cr);
+            }
+        }
+    }
+
+    private static int alpha(int color)
+    {
+        int a = color >>> 24;
+        return a + (a >> 7);
+    }
+
+    private static void blend(byte[] pixels, int p, int a, int cb, int cg, int cr)
+    {
+        if(a >= 256)
+        {
+            pixels[p] = (byte)cb;
+            pixels[p + 1] = (byte)cg;
+            pixels[p + 2] = (byte)cr;
+            return;
+        }
+        int v = pixels[p] & 0xFF;
+        pixels[p] = (byte)(v + ((cb - v) * a >> 8));
+        v = pixels[p + 1] & 0xFF;
+        pixels[p + 1] = (byte)(v + ((cg - v) * a >> 8));
+        v = pixels[p + 2] & 0xFF;
+        pixels[p + 2] = (byte)(v + ((cr - v) * a >> 8));
+    }
+}
@@ -0,0 +1,109 @@
+package canvas;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+import org.opencv.core.Mat;
+
+/**
+ * Blends 8 bit BGRA images over 8 bit BGR ones by their alpha channel.
+ * The blend is done in integers, with an alpha from 0 to 256 so it ends in a shift, and fully transparent and fully opaque pixels skip the arithmetic.
+ * Large images are split in row bands that are read, blended and written back in parallel on the common ForkJoin pool, like the command buffer does.
+ * An instance is not thread safe.
+ * @author Ricardo
+ */
+final class Compositor
+{
+    private static final int MIN_BAND_ROWS = 16;
+    private static final int MAX_BANDS = Runtime.getRuntime().availableProcessors() * 2;
+    private static final long MIN_PARALLEL_PIXELS = 1 << 16;
+
+    private byte[][] sources = new byte[1][];
+    private byte[][] targets = new byte[1][];
+    private boolean parallel = true;
+
+    /**
+     * Sets if large images are blended in parallel row bands.
+     * @param enabled True to blend in parallel, false to always blend on the calling thread.
+     */
+    void setParallel(boolean enabled)
+    {
+        parallel = enabled;
+    }
+
+    /**
+     * Blends an image over another of the same size.
+     * @param src A CV_8UC4 Mat.
+     * @param dst A CV_8UC3 Mat, usually a view of the canvas.
+     */
+    void over(Mat src, Mat dst)
+    {
+        int rows = dst.rows();
+        int bands = parallel && (long)rows * dst.cols() >= MIN_PARALLEL_PIXELS ? Math.max(1, Math.min(MAX_BANDS, rows / MIN_BAND_ROWS)) : 1;
+        if(sources.length < bands)
+        {
+            sources = Arrays.copyOf(sources, bands);
+            targets = Arrays.copyOf(targets, bands);
+        }
+        if(bands == 1)
+            band(src, dst, 0, 1);
+        else
+            IntStream.range(0, bands).parallel().forEach(band -> band(src, dst, band, bands));
+    }
+
+    private void band(Mat src, Mat dst, int band, int bands)
+    {
+        int cols = dst.cols();
+        int top = dst.rows() * band / bands;
+        int height = dst.rows() * (band + 1) / bands - top;
+        int count = cols * height;
+        byte[] in = sources[band];
+        byte[] out = targets[band];
+        if(in == null || in.length < count * 4)
+        {
+            sources[band] = in = new byte[count * 4];
+            targets[band] = out = new byte[count * 3];
+        }
+
+        Mat from = bands == 1 ? src : src.rowRange(top, top + height);
+        Mat to = bands == 1 ? dst : dst.rowRange(top, top + height);
+        from.get(0, 0, in);
+        to.get(0, 0, out);
+        blend(in, out, count);
+        to.put(0, 0, out);
+        if(bands > 1)
+        {
+            from.release();
+            to.release();
+        }
+    }
+
+    /**
+     * Blends BGRA pixels over BGR pixels.
+     * @param src The BGRA pixels.
+     * @param dst The BGR pixels, overwritten with the result.
+     * @param count The number of pixels.
+     */
+    static void blend(byte[] src, byte[] dst, int count)
+    {
+        for(int i = 0, j = 0; j < count * 3; i += 4, j += 3)
+        {
+            int a = src[i + 3] & 0xFF;
+            if(a == 0)
+                continue;
+            if(a == 255)
+            {
+                dst[j] = src[i];
+                dst[j + 1] = src[i + 1];
+                dst[j + 2] = src[i + 2];
+                continue;
+            }
+            a += a >> 7;
+            int v = dst[j] & 0xFF;
+            dst[j] = (byte)(v + (((src[i] & 0xFF) - v) * a >> 8));
+            v = dst[j + 1] & 0xFF;
+            dst[j + 1] = (byte)(v + (((src[i + 1] & 0xFF) - v) * a >> 8));
+            v = dst[j + 2] & 0xFF;
+            dst[j + 2] = (byte)(v + (((src[i + 2] & 0xFF) - v) * a >> 8));
+        }
+    }
+}
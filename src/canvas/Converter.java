@@ -0,0 +1,199 @@
+package canvas;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.WritableRaster;
+import metrics.Metrics;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Converts Mats for display, reusing its scratch Mats and buffers between calls.
+ * Scratch memory is only reallocated when the size or type of the frames change, so converting a stream of frames allocates nothing.
+ * The depth is converted to 8 bits before the channels, so every depth works with 1, 3 and 4 channels.
+ * An instance is not thread safe. Use one per stream.
+ * @author Ricardo
+ */
+public class Converter
+{
+    private final Mat depth = new Mat();
+    private final Mat color = new Mat();
+    private final Mat colorized = new Mat();
+    private DepthColorizer colorizer;
+    private byte[] data;
+    private BufferedImage image;
+    private final FrameStats times = new FrameStats();
+
+    /**
+     * Sets how 16 bit single channel Mats, such as depth and IR, are converted.
+     * @param colorizer The colormap to use, or null to scale them to 8 bits like the other depths.
+     */
+    public void setColorizer(DepthColorizer colorizer)
+    {
+        this.colorizer = colorizer;
+    }
+
+    /**
+     * Gets the colormap used for 16 bit single channel Mats.
+     * @return The colorizer, or null if there is none.
+     */
+    public DepthColorizer getColorizer()
+    {
+        return colorizer;
+    }
+
+    /**
+     * Converts a Mat into a BufferedImage owned by the converter, which is reused while the size and type stay the same.
+     * @param src The source Mat.
+     * @param type BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_4BYTE_ABGR or BufferedImage.TYPE_BYTE_GRAY.
+     * @return The converted image. It is overwritten by the next call.
+     */
+    public BufferedImage toBufferedImage(Mat src, int type)
+    {
+        if(image == null || image.getType() != type || image.getWidth() != src.cols() || image.getHeight() != src.rows())
+            image = new BufferedImage(src.cols(), src.rows(), type);
+        toBufferedImage(src, image);
+        return image;
+    }
+
+    /**
+     * Converts a Mat into a BufferedImage.
+     * An image of the same size as the Mat is written straight into its pixel array. Otherwise the top left corner is written through the raster.
+     * @param src The source Mat.
+     * @param result The result image, of type TYPE_3BYTE_BGR, TYPE_4BYTE_ABGR or TYPE_BYTE_GRAY. Other types are left untouched.
+     */
+    public void toBufferedImage(Mat src, BufferedImage result)
+    {
+        int channels;
+        switch(result.getType())
+        {
+            case BufferedImage.TYPE_3BYTE_BGR: channels = 3; break;
+            case BufferedImage.TYPE_4BYTE_ABGR: channels = 4; break;
+            case BufferedImage.TYPE_BYTE_GRAY: channels = 1; break;
+            default: return;
+        }
+        long start = System.nanoTime();
+
+        WritableRaster raster = result.getRaster();
+        int bytes = src.cols() * src.rows() * channels;
+        byte[] pixels = pixels(raster, src.cols(), src.rows(), bytes);
+        boolean direct = pixels != null;
+
+        // The pixel arrays hold BGR and ABGR, the raster takes RGB and RGBA.
+        Mat out = toChannels(to8U(src), channels, !direct || channels == 4, color);
+        if(!direct)
+        {
+            if(data == null || data.length != bytes)
+                data = new byte[bytes];
+            pixels = data;
+        }
+        out.get(0, 0, pixels);
+
+        if(!direct)
+            raster.setDataElements(0, 0, src.cols(), src.rows(), pixels);
+        else if(channels == 4)
+            for(int i = 0; i < bytes; i += 4)
+            {
+                byte aux = pixels[i];
+                pixels[i] = pixels[i + 3];
+                pixels[i + 3] = aux;
+                aux = pixels[i + 1];
+                pixels[i + 1] = pixels[i + 2];
+                pixels[i + 2] = aux;
+            }
+        done(src, start);
+    }
+
+    /**
+     * Converts a Mat into a drawable Mat, with 3 channels of 8 bits.
+     * @param src The source Mat.
+     * @param result The result Mat. It is only reallocated if its size or type differ.
+     */
+    public void toDrawable(Mat src, Mat result)
+    {
+        long start = System.nanoTime();
+        Mat out = toChannels(to8U(src), 3, false, result);
+        if(out != result)
+            out.copyTo(result);
+        done(src, start);
+    }
+
+    /**
+     * Gets the time conversions take.
+     * @return The histogram of the conversion times, in nanoseconds.
+     */
+    public FrameStats getTimes()
+    {
+        return times;
+    }
+
+    private void done(Mat src, long start)
+    {
+        long time = System.nanoTime() - start;
+        times.record(time);
+        Metrics.conversion(src.type(), src.cols(), src.rows(), time);
+    }
+
+    /**
+     * Frees the scratch memory. The converter can still be used and allocates it again.
+     */
+    public void release()
+    {
+        depth.release();
+        color.release();
+        colorized.release();
+        data = null;
+        image = null;
+    }
+
+    private static byte[] pixels(WritableRaster raster, int width, int height, int bytes)
+    {
+        if(!(raster.getDataBuffer() instanceof DataBufferByte))
+            return null;
+        if(raster.getWidth() != width || raster.getHeight() != height || raster.getSampleModelTranslateX() != 0 || raster.getSampleModelTranslateY() != 0)
+            return null;
+        byte[] pixels = ((DataBufferByte)raster.getDataBuffer()).getData();
+        return pixels.length == bytes ? pixels : null;
+    }
+
+    private Mat to8U(Mat src)
+    {
+        if(colorizer != null && src.type() == CvType.CV_16UC1)
+        {
+            colorizer.apply(src, colorized);
+            return colorized;
+        }
+        switch(src.depth())
+        {
+            case CvType.CV_64F:
+            case CvType.CV_32F: src.convertTo(depth, CvType.CV_8U, 255.0); break;
+            case CvType.CV_32S: src.convertTo(depth, CvType.CV_8U, 1.0/16777216.0, -128); break;
+            case CvType.CV_16S: src.convertTo(depth, CvType.CV_8U, 1.0/255.0, -128); break;
+            case CvType.CV_16U: src.convertTo(depth, CvType.CV_8U, 1.0/255.0); break;
+            case CvType.CV_8S: src.convertTo(depth, CvType.CV_8U, 1.0, -128); break;
+            default: return src;
+        }
+        return depth;
+    }
+
+    private static Mat toChannels(Mat src, int channels, boolean rgb, Mat dst)
+    {
+        int code;
+        switch(src.channels() * 10 + channels)
+        {
+            case 11: return src;
+            case 13: code = Imgproc.COLOR_GRAY2BGR; break;
+            case 14: code = Imgproc.COLOR_GRAY2BGRA; break;
+            case 31: code = Imgproc.COLOR_BGR2GRAY; break;
+            case 33: if(!rgb) return src; code = Imgproc.COLOR_BGR2RGB; break;
+            case 34: code = rgb ? Imgproc.COLOR_BGR2RGBA : Imgproc.COLOR_BGR2BGRA; break;
+            case 41: code = Imgproc.COLOR_BGRA2GRAY; break;
+            case 43: code = rgb ? Imgproc.COLOR_BGRA2RGB : Imgproc.COLOR_BGRA2BGR; break;
+            case 44: if(!rgb) return src; code = Imgproc.COLOR_BGRA2RGBA; break;
+            default: throw new IllegalArgumentException("Cannot convert " + src.channels() + " channels to " + channels);
+        }
+        Imgproc.cvtColor(src, dst, code);
+        return dst;
+    }
+}
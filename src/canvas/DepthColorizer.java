@@ -0,0 +1,270 @@
+package canvas;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+/**
+ * Maps 16 bit single channel images, such as depth and IR, to 8 bit BGR for display.
+ * Each pixel goes through a 65536 entry colormap in a single pass, split in row bands processed in parallel.
+ * The display range can follow the scene. A histogram is sampled while mapping and blended into the previous ones,
+ * and the range for the next frame is taken from its percentiles. Zero means no data and is always black.
+ * An instance is not thread safe. Use one per stream.
+ * @author Ricardo
+ */
+public class DepthColorizer
+{
+    /**
+     * The colors of the map, from the low to the high end of the range.
+     */
+    public enum Palette
+    {
+        /**
+         * Black to white.
+         */
+        GRAY,
+
+        /**
+         * Blue, cyan, yellow and red.
+         */
+        JET
+    }
+
+    private static final int SHIFT = 4;
+    private static final int BINS = 65536 >> SHIFT;
+    private static final int SAMPLE_STEP = 7;
+    private static final int MIN_BAND_ROWS = 16;
+    private static final int MAX_BANDS = Runtime.getRuntime().availableProcessors() * 2;
+
+    private final byte[] lut = new byte[65536 * 3];
+    private final double[] histogram = new double[BINS];
+    private Palette palette = Palette.JET;
+    private boolean auto = true;
+    private double adaptation = 0.1;
+    private double low = 0.02;
+    private double high = 0.98;
+    private int min = 0;
+    private int max = 65535;
+    private boolean empty = true;
+
+    private Palette lutPalette;
+    private int lutMin = -1;
+    private int lutMax = -1;
+    private short[][] in = new short[0][];
+    private byte[][] out = new byte[0][];
+    private int[][] counts = new int[0][];
+
+    /**
+     * Sets the colors of the map.
+     * @param palette The palette.
+     */
+    public void setPalette(Palette palette)
+    {
+        this.palette = palette;
+    }
+
+    /**
+     * Sets a fixed display range and stops adapting it.
+     * @param min The value shown with the first color.
+     * @param max The value shown with the last color.
+     */
+    public void setRange(int min, int max)
+    {
+        this.auto = false;
+        this.min = Math.max(0, Math.min(min, 65534));
+        this.max = Math.max(this.min + 1, Math.min(max, 65535));
+    }
+
+    /**
+     * Makes the display range follow the scene.
+     * @param low The share of the samples shown below the range, such as 0.02.
+     * @param high The share of the samples shown below the top of the range, such as 0.98.
+     * @param adaptation The weight of the newest frame in the histogram, from 0 to 1. Lower values change the range more slowly.
+     */
+    public void setAutoRange(double low, double high, double adaptation)
+    {
+        this.auto = true;
+        this.low = low;
+        this.high = high;
+        this.adaptation = Math.max(0.001, Math.min(adaptation, 1));
+    }
+
+    /**
+     * Checks if the display range follows the scene.
+     * @return True if the range is adaptive.
+     */
+    public boolean isAutoRange()
+    {
+        return auto;
+    }
+
+    /**
+     * Gets the value shown with the first color.
+     * @return The low end of the current range.
+     */
+    public int getMin()
+    {
+        return min;
+    }
+
+    /**
+     * Gets the value shown with the last color.
+     * @return The high end of the current range.
+     */
+    public int getMax()
+    {
+        return max;
+    }
+
+    /**
+     * Maps an image to colors.
+     * @param src A CV_16UC1 Mat.
+     * @param dst The result, allocated as CV_8UC3 if its size or type differ.
+     */
+    public void apply(Mat src, Mat dst)
+    {
+        if(src.type() != CvType.CV_16UC1)
+            throw new IllegalArgumentException("Only CV_16UC1 images can be colorized: " + CvType.typeToString(src.type()));
+        int rows = src.rows();
+        int cols = src.cols();
+        dst.create(rows, cols, CvType.CV_8UC3);
+        if(rows == 0 || cols == 0)
+            return;
+
+        int bands = Math.max(1, Math.min(MAX_BANDS, rows / MIN_BAND_ROWS));
+        allocate(bands, rows, cols);
+        if(lutPalette != palette || lutMin != min || lutMax != max)
+            build();
+
+        boolean sample = auto;
+        IntStream.range(0, bands).parallel().forEach(band -> band(src, dst, band, bands, sample));
+        if(sample)
+            adapt(bands);
+    }
+
+    private void allocate(int bands, int rows, int cols)
+    {
+        if(in.length != bands)
+        {
+            in = new short[bands][];
+            out = new byte[bands][];
+            counts = new int[bands][BINS];
+        }
+        for(int band = 0; band < bands; band++)
+        {
+            int n = (rows * (band + 1) / bands - rows * band / bands) * cols;
+            if(in[band] == null || in[band].length != n)
+            {
+                in[band] = new short[n];
+                out[band] = new byte[n * 3];
+            }
+        }
+    }
+
+    private void band(Mat src, Mat dst, int band, int bands, boolean sample)
+    {
+        int start = src.rows() * band / bands;
+        short[] pixels = in[band];
+        byte[] colors = out[band];
+        byte[] map = lut;
+        src.get(start, 0, pixels);
+
+        for(int i = 0, j = 0; i < pixels.length; i++, j += 3)
+        {
+            int k = (pixels[i] & 0xFFFF) * 3;
+            colors[j] = map[k];
+            colors[j + 1] = map[k + 1];
+            colors[j + 2] = map[k + 2];
+        }
+        dst.put(start, 0, colors);
+
+        if(sample)
+        {
+            int[] count = counts[band];
+            Arrays.fill(count, 0);
+            for(int i = band % SAMPLE_STEP; i < pixels.length; i += SAMPLE_STEP)
+            {
+                int v = pixels[i] & 0xFFFF;
+                if(v != 0)
+                    count[v >>> SHIFT]++;
+            }
+        }
+    }
+
+    private void adapt(int bands)
+    {
+        long total = 0;
+        for(int band = 0; band < bands; band++)
+            for(int c : counts[band])
+                total += c;
+        if(total == 0)
+            return;
+
+        double weight = empty ? 1 : adaptation;
+        empty = false;
+        double sum = 0;
+        for(int bin = 0; bin < BINS; bin++)
+        {
+            int c = 0;
+            for(int band = 0; band < bands; band++)
+                c += counts[band][bin];
+            histogram[bin] = histogram[bin] * (1 - weight) + weight * c / total;
+            sum += histogram[bin];
+        }
+
+        double cumulative = 0;
+        int lowBin = -1;
+        int highBin = BINS - 1;
+        for(int bin = 0; bin < BINS; bin++)
+        {
+            cumulative += histogram[bin];
+            if(lowBin < 0 && cumulative >= low * sum)
+                lowBin = bin;
+            if(cumulative >= high * sum)
+            {
+                highBin = bin;
+                break;
+            }
+        }
+        min = Math.max(0, lowBin) << SHIFT;
+        max = Math.max(min + 1, ((highBin + 1) << SHIFT) - 1);
+    }
+
+    private void build()
+    {
+        byte[] colors = colors(palette);
+        double scale = 255.0 / (max - min);
+        lut[0] = lut[1] = lut[2] = 0;
+        for(int v = 1; v < 65536; v++)
+        {
+            int t = v <= min ? 0 : v >= max ? 255 : (int)((v - min) * scale);
+            System.arraycopy(colors, t * 3, lut, v * 3, 3);
+        }
+        lutPalette = palette;
+        lutMin = min;
+        lutMax = max;
+    }
+
+    private static byte[] colors(Palette palette)
+    {
+        byte[] colors = new byte[256 * 3];
+        for(int t = 0; t < 256; t++)
+        {
+            double x = t / 255.0;
+            double r, g, b;
+            if(palette == Palette.GRAY)
+                r = g = b = x;
+            else
+            {
+                r = 1.5 - Math.abs(4 * x - 3);
+                g = 1.5 - Math.abs(4 * x - 2);
+                b = 1.5 - Math.abs(4 * x - 1);
+            }
+            colors[t * 3] = (byte)Math.round(255 * Math.max(0, Math.min(b, 1)));
+            colors[t * 3 + 1] = (byte)Math.round(255 * Math.max(0, Math.min(g, 1)));
+            colors[t * 3 + 2] = (byte)Math.round(255 * Math.max(0, Math.min(r, 1)));
+        }
+        return colors;
+    }
+}
@@ -0,0 +1,149 @@
+package canvas;
+
+import org.opencv.core.Rect;
+
+/**
+ * Keeps the bounding rectangle of what each canvas frame changed, for the last few frames.
+ * A buffer that holds the content of an older frame can then be brought up to date by copying only the union of the rectangles of the frames it missed.
+ * The drawing thread adds to the current frame and commits it. Any thread can ask for the union.
+ * It also keeps what was drawn since the last clear, so clearing again to the same color only needs to touch that area.
+ * @author Ricardo
+ */
+final class DirtyRegion
+{
+    private static final int HISTORY = 8;
+
+    private final int[] history = new int[HISTORY * 4];
+    private int width;
+    private int height;
+    private long frame;
+    private int x0 = Integer.MAX_VALUE;
+    private int y0 = Integer.MAX_VALUE;
+    private int x1 = Integer.MIN_VALUE;
+    private int y1 = Integer.MIN_VALUE;
+    private int px0 = Integer.MAX_VALUE;
+    private int py0 = Integer.MAX_VALUE;
+    private int px1 = Integer.MIN_VALUE;
+    private int py1 = Integer.MIN_VALUE;
+
+    /**
+     * Starts over for a canvas of a new size. The first frame is entirely dirty.
+     * @param width The width of the canvas.
+     * @param height The height of the canvas.
+     */
+    synchronized void reset(int width, int height)
+    {
+        this.width = width;
+        this.height = height;
+        frame += HISTORY;
+        addAll();
+    }
+
+    /**
+     * Marks a rectangle of the current frame as changed.
+     * @param x0 The left column.
+     * @param y0 The top row.
+     * @param x1 The column after the right edge.
+     * @param y1 The row after the bottom edge.
+     */
+    void add(int x0, int y0, int x1, int y1)
+    {
+        if(x0 < this.x0)
+            this.x0 = x0;
+        if(y0 < this.y0)
+            this.y0 = y0;
+        if(x1 > this.x1)
+            this.x1 = x1;
+        if(y1 > this.y1)
+            this.y1 = y1;
+        if(x0 < px0)
+            px0 = x0;
+        if(y0 < py0)
+            py0 = y0;
+        if(x1 > px1)
+            px1 = x1;
+        if(y1 > py1)
+            py1 = y1;
+    }
+
+    /**
+     * Marks the whole current frame as changed.
+     */
+    void addAll()
+    {
+        add(0, 0, Integer.MAX_VALUE, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Marks the frame as cleared to a background color.
+     * @param same True if the color is the one of the previous clear.
+     * @return The area drawn since the previous clear, which is all that differs from the background, possibly empty, or null if the whole frame must be cleared.
+     */
+    Rect clear(boolean same)
+    {
+        Rect drawn = null;
+        if(same)
+        {
+            int cx0 = Math.max(px0, 0), cy0 = Math.max(py0, 0), cx1 = Math.min(px1, width), cy1 = Math.min(py1, height);
+            drawn = cx0 < cx1 && cy0 < cy1 ? new Rect(cx0, cy0, cx1 - cx0, cy1 - cy0) : new Rect(0, 0, 0, 0);
+            add(cx0, cy0, cx1, cy1);
+        }
+        else
+            addAll();
+        px0 = py0 = Integer.MAX_VALUE;
+        px1 = py1 = Integer.MIN_VALUE;
+        return drawn;
+    }
+
+    /**
+     * Ends the current frame.
+     * @return The number of the frame that was ended.
+     */
+    synchronized long commit()
+    {
+        int i = (int)(frame % HISTORY) * 4;
+        history[i] = Math.max(x0, 0);
+        history[i + 1] = Math.max(y0, 0);
+        history[i + 2] = Math.min(x1, width);
+        history[i + 3] = Math.min(y1, height);
+        x0 = y0 = Integer.MAX_VALUE;
+        x1 = y1 = Integer.MIN_VALUE;
+        return frame++;
+    }
+
+    /**
+     * Gets what changed between two committed frames.
+     * @param from The frame whose content the buffer holds.
+     * @param to The frame the buffer must be brought to.
+     * @return The union of the rectangles of the frames after from up to to, possibly empty, or null if it is not known and everything must be copied.
+     */
+    synchronized Rect since(long from, long to)
+    {
+        if(from < 0 || to < from || to - from > HISTORY || frame - from > HISTORY)
+            return null;
+        int ux0 = Integer.MAX_VALUE, uy0 = Integer.MAX_VALUE, ux1 = Integer.MIN_VALUE, uy1 = Integer.MIN_VALUE;
+        for(long f = from + 1; f <= to; f++)
+        {
+            int i = (int)(f % HISTORY) * 4;
+            if(history[i] >= history[i + 2] || history[i + 1] >= history[i + 3])
+                continue;
+            ux0 = Math.min(ux0, history[i]);
+            uy0 = Math.min(uy0, history[i + 1]);
+            ux1 = Math.max(ux1, history[i + 2]);
+            uy1 = Math.max(uy1, history[i + 3]);
+        }
+        if(ux0 >= ux1 || uy0 >= uy1)
+            return new Rect(0, 0, 0, 0);
+        return new Rect(ux0, uy0, ux1 - ux0, uy1 - uy0);
+    }
+
+    /**
+     * Checks if copying a rectangle is worth it compared to copying the whole frame.
+     * @param rect The rectangle returned by since.
+     * @return True if the rectangle covers less than half of the frame.
+     */
+    synchronized boolean isPartial(Rect rect)
+    {
+        return rect != null && (long)rect.width * rect.height * 2 < (long)width * height;
+    }
+}
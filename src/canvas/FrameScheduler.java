@@ -0,0 +1,194 @@
+package canvas;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs a frame function on its own thread, paced with nanosecond precision.
+ * It keeps statistics of how long each frame takes and of the interval between frames.
+ * @author Ricardo
+ */
+public final class FrameScheduler
+{
+    /**
+     * How frames are paced.
+     */
+    public enum Policy
+    {
+        /**
+         * Frames start on a fixed grid. A frame that overruns makes the scheduler skip the deadlines it missed instead of running late frames back to back.
+         */
+        FIXED_RATE,
+
+        /**
+         * Each frame starts one period after the previous one finished.
+         */
+        FIXED_DELAY,
+
+        /**
+         * Frames run back to back, as fast as possible.
+         */
+        UNCAPPED
+    }
+
+    private static final long PARK_MARGIN = 1000000;
+    private static final long SPIN_MARGIN = 100000;
+
+    private final Runnable frame;
+    private final String name;
+    private final FrameStats frameTimes = new FrameStats();
+    private final FrameStats intervals = new FrameStats();
+    private volatile Thread thread;
+    private volatile long period;
+    private volatile Policy policy = Policy.FIXED_RATE;
+
+    /**
+     * Creates a scheduler. It does nothing until it is started.
+     * @param frame The function that produces one frame.
+     * @param name The name of the frame thread.
+     */
+    public FrameScheduler(Runnable frame, String name)
+    {
+        this.frame = frame;
+        this.name = name;
+    }
+
+    /**
+     * Starts running frames, or restarts with the new pace if it is already running.
+     * @param fps The desired frame rate. Zero or negative runs uncapped.
+     * @param policy How frames are paced.
+     */
+    public synchronized void start(double fps, Policy policy)
+    {
+        stop();
+        this.period = fps > 0 ? Math.round(1e9 / fps) : 0;
+        this.policy = fps > 0 ? policy : Policy.UNCAPPED;
+        Thread t = new Thread(this::run, name);
+        thread = t;
+        t.start();
+    }
+
+    /**
+     * Stops running frames. A frame in progress finishes first. Waits for it unless called from the frame itself.
+     */
+    public synchronized void stop()
+    {
+        Thread t = thread;
+        if(t == null)
+            return;
+        thread = null;
+        t.interrupt();
+        if(t == Thread.currentThread())
+            return;
+        boolean interrupted = false;
+        while(t.isAlive())
+        {
+            try
+            {
+                t.join();
+            }
+            catch(InterruptedException e)
+            {
+                interrupted = true;
+            }
+        }
+        if(interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    /**
+     * Checks if frames are being run.
+     * @return True if the scheduler is running.
+     */
+    public boolean isRunning()
+    {
+        return thread != null;
+    }
+
+    /**
+     * Gets the pacing policy.
+     * @return The current policy.
+     */
+    public Policy getPolicy()
+    {
+        return policy;
+    }
+
+    /**
+     * Gets the target time between frames.
+     * @return The period in nanoseconds, or 0 when uncapped.
+     */
+    public long getPeriod()
+    {
+        return period;
+    }
+
+    /**
+     * Gets the statistics of how long the frame function takes. Deadlines missed by the scheduler are counted here.
+     * @return The frame time histogram.
+     */
+    public FrameStats getFrameTimes()
+    {
+        return frameTimes;
+    }
+
+    /**
+     * Gets the statistics of the time between the start of consecutive frames.
+     * @return The frame interval histogram.
+     */
+    public FrameStats getIntervals()
+    {
+        return intervals;
+    }
+
+    private void run()
+    {
+        Thread self = Thread.currentThread();
+        long next = System.nanoTime();
+        long last = 0;
+        while(thread == self && !self.isInterrupted())
+        {
+            long start = System.nanoTime();
+            if(last != 0)
+                intervals.record(start - last);
+            last = start;
+
+            frame.run();
+
+            long end = System.nanoTime();
+            frameTimes.record(end - start);
+
+            switch(policy)
+            {
+                case FIXED_RATE:
+                    next += period;
+                    if(end - next > 0)
+                    {
+                        long missed = (end - next) / period + 1;
+                        frameTimes.missed(missed);
+                        next += missed * period;
+                    }
+                    sleepUntil(next);
+                break;
+                case FIXED_DELAY:
+                    sleepUntil(end + period);
+                break;
+                default:
+                break;
+            }
+        }
+    }
+
+    private static void sleepUntil(long deadline)
+    {
+        long remaining;
+        while((remaining = deadline - System.nanoTime()) > 0)
+        {
+            if(Thread.currentThread().isInterrupted())
+                return;
+            if(remaining > PARK_MARGIN)
+                LockSupport.parkNanos(remaining - PARK_MARGIN);
+            else if(remaining > SPIN_MARGIN)
+                Thread.yield();
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package canvas;
+
+import java.util.Arrays;
+
+/**
+ * Histogram of frame durations with a precision of 1/16 of the value, from microseconds up to hours.
+ * It is written by the frame thread and can be read from any thread.
+ * @author Ricardo
+ */
+public final class FrameStats
+{
+    private static final int LINEAR = 32;
+    private static final int SUB_BUCKETS = 16;
+    private static final int BUCKETS = LINEAR + 64 * SUB_BUCKETS;
+
+    private final long[] counts = new long[BUCKETS];
+    private long count;
+    private long total;
+    private long max;
+    private long min = Long.MAX_VALUE;
+    private long missed;
+
+    /**
+     * Adds a duration to the histogram.
+     * @param nanos The duration in nanoseconds.
+     */
+    public synchronized void record(long nanos)
+    {
+        if(nanos < 0)
+            nanos = 0;
+        counts[bucket(nanos / 1000)]++;
+        count++;
+        total += nanos;
+        if(nanos > max)
+            max = nanos;
+        if(nanos < min)
+            min = nanos;
+    }
+
+    /**
+     * Adds frames that were skipped because their deadline had already passed.
+     * @param frames The number of missed deadlines.
+     */
+    public synchronized void missed(long frames)
+    {
+        missed += frames;
+    }
+
+    /**
+     * Gets the number of recorded durations.
+     * @return The number of frames.
+     */
+    public synchronized long getCount()
+    {
+        return count;
+    }
+
+    /**
+     * Gets the number of frames skipped by the scheduler because they could not start on time.
+     * @return The number of missed deadlines.
+     */
+    public synchronized long getMissedDeadlines()
+    {
+        return missed;
+    }
+
+    /**
+     * Gets the average duration.
+     * @return The mean in nanoseconds, or 0 if nothing was recorded.
+     */
+    public synchronized long getMean()
+    {
+        return count == 0 ? 0 : total / count;
+    }
+
+    /**
+     * Gets the shortest duration.
+     * @return The minimum in nanoseconds, or 0 if nothing was recorded.
+     */
+    public synchronized long getMin()
+    {
+        return count == 0 ? 0 : min;
+    }
+
+    /**
+     * Gets the longest duration.
+     * @return The maximum in nanoseconds.
+     */
+    public synchronized long getMax()
+    {
+        return max;
+    }
+
+    /**
+     * Gets the duration below which the given fraction of the frames are.
+     * @param p The percentile, between 0 and 100.
+     * @return The percentile in nanoseconds, accurate to 1/16 of its value, or 0 if nothing was recorded.
+     */
+    public synchronized long getPercentile(double p)
+    {
+        if(count == 0)
+            return 0;
+        long rank = (long)Math.ceil(Math.min(100, Math.max(0, p)) / 100 * count);
+        if(rank < 1)
+            rank = 1;
+        long seen = 0;
+        for(int i = 0; i < BUCKETS; i++)
+        {
+            seen += counts[i];
+            if(seen >= rank)
+                return Math.min(max, Math.max(min, upper(i) * 1000));
+        }
+        return max;
+    }
+
+    /**
+     * Gets the median duration.
+     * @return The 50th percentile in nanoseconds.
+     */
+    public long getP50()
+    {
+        return getPercentile(50);
+    }
+
+    /**
+     * Gets the 99th percentile of the durations.
+     * @return The 99th percentile in nanoseconds.
+     */
+    public long getP99()
+    {
+        return getPercentile(99);
+    }
+
+    /**
+     * Clears the histogram.
+     */
+    public synchronized void reset()
+    {
+        Arrays.fill(counts, 0);
+        count = 0;
+        total = 0;
+        max = 0;
+        min = Long.MAX_VALUE;
+        missed = 0;
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        return String.format("frames=%d mean=%.3fms p50=%.3fms p99=%.3fms max=%.3fms missed=%d",
+                count, getMean() / 1e6, getP50() / 1e6, getP99() / 1e6, max / 1e6, missed);
+    }
+
+    private static int bucket(long micros)
+    {
+        if(micros < LINEAR)
+            return (int)micros;
+        int shift = 63 - Long.numberOfLeadingZeros(micros) - 4;
+        int index = shift * SUB_BUCKETS + (int)(micros >>> shift);
+        return Math.min(index, BUCKETS - 1);
+    }
+
+    private static long upper(int index)
+    {
+        if(index < LINEAR)
+            return index;
+        int shift = index / SUB_BUCKETS - 1;
+        long top = index % SUB_BUCKETS + SUB_BUCKETS;
+        return ((top + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,105 @@
+package canvas;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import org.opencv.core.Mat;
+
+/**
+ * A single slot holding the newest Mat posted to a display, with a pool of copies so posting does not allocate once warmed up.
+ * Any thread can post. A single consumer takes the Mat and recycles it after use.
+ * Closing the mailbox frees the native memory of every copy, including those posted or recycled while it closes.
+ * @author Ricardo
+ */
+final class Mailbox
+{
+    /**
+     * A copy of a posted Mat, with the arrival time of the sensor frame it shows.
+     */
+    static final class Letter
+    {
+        final Mat mat = new Mat();
+        long origin;
+    }
+
+    private final AtomicReference<Letter> slot = new AtomicReference<>();
+    private final ConcurrentLinkedQueue<Letter> free = new ConcurrentLinkedQueue<>();
+    private final AtomicLong coalesced = new AtomicLong();
+    private volatile boolean closed;
+
+    /**
+     * Copies a Mat into the slot, replacing the one not taken yet.
+     * @param mat The Mat to post. It is only read during the call.
+     * @param origin The System.nanoTime the sensor frame shown arrived at, or -1 if unknown.
+     * @return True if the slot was empty, so the consumer must be notified. Always false once closed.
+     */
+    boolean post(Mat mat, long origin)
+    {
+        if(closed)
+            return false;
+        Letter copy = free.poll();
+        if(copy == null)
+            copy = new Letter();
+        mat.copyTo(copy.mat);
+        copy.origin = origin;
+        Letter old = slot.getAndSet(copy);
+        if(old != null)
+        {
+            coalesced.incrementAndGet();
+            free.offer(old);
+        }
+        if(closed)
+        {
+            drain();
+            return false;
+        }
+        return old == null;
+    }
+
+    /**
+     * Takes the newest Mat, emptying the slot.
+     * @return The copy, or null if nothing was posted since the last take. It must be recycled after use.
+     */
+    Letter take()
+    {
+        return slot.getAndSet(null);
+    }
+
+    /**
+     * Gives a taken copy back to the pool.
+     * @param letter The copy returned by take.
+     */
+    void recycle(Letter letter)
+    {
+        free.offer(letter);
+        if(closed)
+            drain();
+    }
+
+    /**
+     * Frees the copies and stops taking new Mats. A copy taken before is freed when it is recycled.
+     */
+    void close()
+    {
+        closed = true;
+        drain();
+    }
+
+    private void drain()
+    {
+        Letter letter = slot.getAndSet(null);
+        if(letter != null)
+            letter.mat.release();
+        while((letter = free.poll()) != null)
+            letter.mat.release();
+    }
+
+    /**
+     * Gets the number of Mats replaced before being taken.
+     * @return The number of coalesced Mats.
+     */
+    long getCoalesced()
+    {
+        return coalesced.get();
+    }
+}
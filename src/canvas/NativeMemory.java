@@ -0,0 +1,184 @@
+package canvas;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+/**
+ * Copies between direct buffers and the native memory of OpenCV Mats without going through the Java heap.
+ * It uses sun.misc.Unsafe when the JVM provides it. Otherwise copies go through a temporary heap array, as with Mat.put.
+ * @author Ricardo
+ */
+public final class NativeMemory
+{
+    private static final MethodHandle COPY;
+    private static final MethodHandle GET_LONG;
+    private static final long ADDRESS;
+
+    static
+    {
+        MethodHandle copy = null;
+        MethodHandle getLong = null;
+        long address = -1;
+        try
+        {
+            Class<?> type = Class.forName("sun.misc.Unsafe");
+            Field field = type.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            Object unsafe = field.get(null);
+
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            copy = lookup.findVirtual(type, "copyMemory", MethodType.methodType(void.class, long.class, long.class, long.class)).bindTo(unsafe);
+            getLong = lookup.findVirtual(type, "getLong", MethodType.methodType(long.class, Object.class, long.class)).bindTo(unsafe);
+            MethodHandle offset = lookup.findVirtual(type, "objectFieldOffset", MethodType.methodType(long.class, Field.class)).bindTo(unsafe);
+            address = (long)offset.invokeExact(Buffer.class.getDeclaredField("address"));
+        }
+        catch(Throwable e)
+        {
+            copy = null;
+            getLong = null;
+            address = -1;
+        }
+        COPY = copy;
+        GET_LONG = getLong;
+        ADDRESS = address;
+    }
+
+    private NativeMemory()
+    {
+    }
+
+    /**
+     * Checks if copies go straight from native memory to native memory.
+     * @return True if the single copy path is available.
+     */
+    public static boolean isAvailable()
+    {
+        return COPY != null;
+    }
+
+    /**
+     * Gets the native address of a direct buffer.
+     * @param buffer A direct buffer.
+     * @return The address of the first element of the buffer, ignoring its position.
+     */
+    public static long address(Buffer buffer)
+    {
+        if(COPY == null || !buffer.isDirect())
+            throw new IllegalArgumentException("Not a direct buffer or native memory access is not available");
+        try
+        {
+            return (long)GET_LONG.invokeExact((Object)buffer, ADDRESS);
+        }
+        catch(Throwable e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Copies an image from a buffer into a Mat, from the buffer position on. The buffer position is not changed.
+     * @param src The source buffer, holding rows of stride bytes.
+     * @param stride The number of bytes between the start of two rows in the source, or 0 if rows are packed.
+     * @param dst The destination Mat. It must be continuous and already have the size and type of the image. 16 bit samples are read in little endian order.
+     */
+    public static void copy(ByteBuffer src, int stride, Mat dst)
+    {
+        int rowBytes = (int)(dst.cols() * dst.elemSize());
+        int rows = dst.rows();
+        if(stride <= 0)
+            stride = rowBytes;
+        if(src.remaining() < stride * (rows - 1) + rowBytes)
+            throw new IllegalArgumentException("Buffer is smaller than the image: " + src.remaining());
+        if(!dst.isContinuous())
+            throw new IllegalArgumentException("Destination Mat must be continuous");
+
+        if(COPY != null && src.isDirect())
+        {
+            long from = address(src) + src.position();
+            long to = dst.dataAddr();
+            try
+            {
+                if(stride == rowBytes)
+                    COPY.invokeExact(from, to, (long)rowBytes * rows);
+                else
+                    for(int y = 0; y < rows; y++)
+                        COPY.invokeExact(from + (long)y * stride, to + (long)y * rowBytes, (long)rowBytes);
+            }
+            catch(Throwable e)
+            {
+                throw new IllegalStateException(e);
+            }
+            return;
+        }
+
+        ByteBuffer aux = src.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        if(dst.depth() == CvType.CV_16U || dst.depth() == CvType.CV_16S)
+        {
+            short[] data = new short[rowBytes / 2 * rows];
+            for(int y = 0; y < rows; y++)
+            {
+                aux.position(src.position() + y * stride);
+                aux.asShortBuffer().get(data, y * rowBytes / 2, rowBytes / 2);
+            }
+            dst.put(0, 0, data);
+        }
+        else
+        {
+            byte[] data = new byte[rowBytes * rows];
+            for(int y = 0; y < rows; y++)
+            {
+                aux.position(src.position() + y * stride);
+                aux.get(data, y * rowBytes, rowBytes);
+            }
+            dst.put(0, 0, data);
+        }
+    }
+
+    /**
+     * Copies the pixels of a Mat into a buffer, at the buffer position, with rows packed. The buffer position is not changed.
+     * @param src The source Mat. It must be continuous.
+     * @param dst The destination buffer. 16 bit samples are written in little endian order.
+     */
+    public static void copy(Mat src, ByteBuffer dst)
+    {
+        int bytes = (int)(src.total() * src.elemSize());
+        if(dst.remaining() < bytes)
+            throw new IllegalArgumentException("Buffer is smaller than the image: " + dst.remaining());
+        if(!src.isContinuous())
+            throw new IllegalArgumentException("Source Mat must be continuous");
+
+        if(COPY != null && dst.isDirect())
+        {
+            try
+            {
+                COPY.invokeExact(src.dataAddr(), address(dst) + dst.position(), (long)bytes);
+            }
+            catch(Throwable e)
+            {
+                throw new IllegalStateException(e);
+            }
+            return;
+        }
+
+        ByteBuffer aux = dst.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        if(src.depth() == CvType.CV_16U || src.depth() == CvType.CV_16S)
+        {
+            short[] data = new short[bytes / 2];
+            src.get(0, 0, data);
+            aux.asShortBuffer().put(data);
+        }
+        else
+        {
+            byte[] data = new byte[bytes];
+            src.get(0, 0, data);
+            aux.put(data);
+        }
+    }
+}
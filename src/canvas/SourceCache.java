@@ -0,0 +1,123 @@
+package canvas;
+
+import java.lang.ref.WeakReference;
+import org.opencv.core.Mat;
+
+/**
+ * Keeps the drawable conversions of the last few images drawn on the canvas, so an image that did not change is converted once.
+ * An entry is found by the identity of the source Mat and a version given by the caller, and is only used if the pixels of the Mat were not reallocated
+ * and the colormap is the same. The cache holds a fixed number of entries and reuses the Mat of the least recently used one, so a hit allocates nothing.
+ * Sources are referenced weakly, so the cache does not keep them alive.
+ * @author Ricardo
+ */
+final class SourceCache
+{
+    private final Entry[] entries;
+    private long clock;
+    private long hits;
+    private long misses;
+
+    /**
+     * Creates a cache.
+     * @param size The number of converted images it holds.
+     */
+    SourceCache(int size)
+    {
+        entries = new Entry[size];
+        for(int i = 0; i < size; i++)
+            entries[i] = new Entry();
+    }
+
+    /**
+     * Gets the drawable conversion of an image, converting it only if it is not cached.
+     * @param src The source image.
+     * @param version The version of the content of the source. A different version means the pixels changed.
+     * @param converter The converter used on a miss. Its colormap is part of the key.
+     * @return A CV_8UC3 Mat owned by the cache, valid until the next call.
+     */
+    Mat get(Mat src, long version, Converter converter)
+    {
+        long address = src.dataAddr();
+        DepthColorizer colorizer = converter.getColorizer();
+        Entry victim = null;
+        long oldest = Long.MAX_VALUE;
+        for(Entry entry : entries)
+        {
+            Mat source = entry.source == null ? null : entry.source.get();
+            if(source == src)
+            {
+                if(entry.version == version && entry.address == address && entry.colorizer == colorizer
+                        && entry.rows == src.rows() && entry.cols == src.cols() && entry.type == src.type())
+                {
+                    entry.used = ++clock;
+                    hits++;
+                    return entry.drawable;
+                }
+                victim = entry;
+                break;
+            }
+            long used = source == null ? -1 : entry.used;
+            if(used < oldest)
+            {
+                victim = entry;
+                oldest = used;
+            }
+        }
+
+        misses++;
+        converter.toDrawable(src, victim.drawable);
+        if(victim.source == null || victim.source.get() != src)
+            victim.source = new WeakReference<>(src);
+        victim.version = version;
+        victim.address = address;
+        victim.colorizer = colorizer;
+        victim.rows = src.rows();
+        victim.cols = src.cols();
+        victim.type = src.type();
+        victim.used = ++clock;
+        return victim.drawable;
+    }
+
+    /**
+     * Gets the number of images found converted in the cache.
+     * @return The number of hits.
+     */
+    long getHits()
+    {
+        return hits;
+    }
+
+    /**
+     * Gets the number of images that had to be converted.
+     * @return The number of misses.
+     */
+    long getMisses()
+    {
+        return misses;
+    }
+
+    /**
+     * Frees the converted images. The cache can still be used and converts them again.
+     */
+    void clear()
+    {
+        for(Entry entry : entries)
+        {
+            entry.drawable.release();
+            entry.source = null;
+        }
+    }
+
+    private static final class Entry
+    {
+        private final Mat drawable = new Mat();
+        private WeakReference<Mat> source;
+        private long version;
+        private long address;
+        private DepthColorizer colorizer;
+        private int rows;
+        private int cols;
+        private int type;
+        private long used;
+    }
+}
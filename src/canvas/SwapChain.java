@@ -0,0 +1,150 @@
+package canvas;
+
+import java.util.ArrayDeque;
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+
+/**
+ * Set of canvas buffers shared between the drawing thread and the presenting thread.
+ * The drawing thread acquires a free buffer, draws on it and presents it. The presenting thread takes the latest presented buffer and releases it when done.
+ * A presented buffer that was not taken yet is replaced by the next one, so the drawing thread never waits for a slow presentation if there are three buffers.
+ * Each buffer remembers the version of the frame it was last presented with, so its content can be brought up to date by copying only what changed since.
+ * @author Ricardo
+ */
+final class SwapChain
+{
+    private final ArrayDeque<Mat> free = new ArrayDeque<>();
+    private final Mat[] buffers;
+    private final long[] versions;
+    private Mat ready;
+    private boolean disposed;
+    private long dropped;
+
+    /**
+     * Creates a swap chain.
+     * @param count The number of buffers.
+     * @param rows The height of the buffers.
+     * @param cols The width of the buffers.
+     * @param type The OpenCV type of the buffers.
+     */
+    SwapChain(int count, int rows, int cols, int type)
+    {
+        buffers = new Mat[count];
+        versions = new long[count];
+        for(int i = 0; i < count; i++)
+        {
+            buffers[i] = new Mat(rows, cols, type, new Scalar(0, 0, 0));
+            versions[i] = -1;
+            free.add(buffers[i]);
+        }
+    }
+
+    /**
+     * Takes a free buffer to draw on, waiting until the presenting thread releases one.
+     * The wait is not interrupted, since the drawing thread always needs a buffer. The interrupt status is kept.
+     * @return A buffer owned by the caller.
+     */
+    synchronized Mat acquire()
+    {
+        boolean interrupted = false;
+        while(free.isEmpty())
+        {
+            try
+            {
+                wait();
+            }
+            catch(InterruptedException e)
+            {
+                interrupted = true;
+            }
+        }
+        if(interrupted)
+            Thread.currentThread().interrupt();
+        return free.poll();
+    }
+
+    /**
+     * Hands a drawn buffer to the presenting thread. A previously presented buffer that was not taken yet is dropped.
+     * @param mat The buffer to present.
+     * @param version The version of the frame drawn on the buffer.
+     */
+    synchronized void present(Mat mat, long version)
+    {
+        for(int i = 0; i < buffers.length; i++)
+            if(buffers[i] == mat)
+                versions[i] = version;
+        if(ready != null)
+        {
+            free.add(ready);
+            dropped++;
+        }
+        ready = mat;
+        notifyAll();
+    }
+
+    /**
+     * Takes the latest presented buffer, waiting until one is available.
+     * @return The presented buffer, or null if the swap chain was disposed.
+     * @throws InterruptedException If the thread is interrupted while waiting.
+     */
+    synchronized Mat acquirePresented() throws InterruptedException
+    {
+        while(ready == null && !disposed)
+            wait();
+        Mat mat = ready;
+        ready = null;
+        return mat;
+    }
+
+    /**
+     * Gives a buffer back to the swap chain after it was presented.
+     * @param mat The buffer to release.
+     */
+    synchronized void release(Mat mat)
+    {
+        if(disposed)
+            mat.release();
+        else
+        {
+            free.add(mat);
+            notifyAll();
+        }
+    }
+
+    /**
+     * Gets the version of the frame a buffer was last presented with.
+     * @param mat The buffer.
+     * @return The version, or -1 if the buffer was never presented.
+     */
+    synchronized long getVersion(Mat mat)
+    {
+        for(int i = 0; i < buffers.length; i++)
+            if(buffers[i] == mat)
+                return versions[i];
+        return -1;
+    }
+
+    /**
+     * Gets the number of presented buffers that were replaced before being taken.
+     * @return The number of dropped frames.
+     */
+    synchronized long getDropped()
+    {
+        return dropped;
+    }
+
+    /**
+     * Releases the buffers of the swap chain. Buffers still owned by other threads are released when given back.
+     */
+    synchronized void dispose()
+    {
+        disposed = true;
+        for(Mat mat : free)
+            mat.release();
+        free.clear();
+        if(ready != null)
+            ready.release();
+        ready = null;
+        notifyAll();
+    }
+}
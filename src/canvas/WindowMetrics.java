@@ -0,0 +1,153 @@
+package canvas;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import metrics.Metrics;
+
+/**
+ * Measures what a display window shows: how many Mats it displays, coalesces and drops, the latency from the sensor frame to the display, the conversion time and the Mats that could not be displayed.
+ * It is written by the render thread and can be read from any thread, through JMX or the getters.
+ * @author Ricardo
+ */
+public final class WindowMetrics implements WindowMetricsMBean
+{
+    private final String name;
+    private final LongSupplier coalesced;
+    private final LongSupplier dropped;
+    private final FrameStats conversions;
+    private final FrameStats latencies = new FrameStats();
+    private final AtomicLong displayed = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private volatile RuntimeException lastError;
+
+    WindowMetrics(String name, LongSupplier coalesced, LongSupplier dropped, FrameStats conversions)
+    {
+        this.name = name;
+        this.coalesced = coalesced;
+        this.dropped = dropped;
+        this.conversions = conversions;
+    }
+
+    /**
+     * Records a displayed Mat.
+     * @param origin The System.nanoTime the sensor frame shown arrived at, or -1 if unknown.
+     */
+    void displayed(long origin)
+    {
+        displayed.incrementAndGet();
+        if(origin < 0)
+            return;
+        long latency = System.nanoTime() - origin;
+        latencies.record(latency);
+        Metrics.display(name, latency);
+    }
+
+    /**
+     * Records a Mat that could not be displayed.
+     * @param e The exception thrown while converting or displaying it.
+     */
+    void failed(RuntimeException e)
+    {
+        failures.incrementAndGet();
+        lastError = e;
+    }
+
+    @Override
+    public String getName()
+    {
+        return name;
+    }
+
+    @Override
+    public long getDisplayed()
+    {
+        return displayed.get();
+    }
+
+    @Override
+    public long getCoalesced()
+    {
+        return coalesced.getAsLong();
+    }
+
+    @Override
+    public long getDropped()
+    {
+        return dropped.getAsLong();
+    }
+
+    @Override
+    public long getFailures()
+    {
+        return failures.get();
+    }
+
+    /**
+     * Gets the last exception thrown while displaying a Mat, such as a Mat of a type that cannot be displayed.
+     * @return The exception, or null if none was thrown.
+     */
+    public RuntimeException getLastError()
+    {
+        return lastError;
+    }
+
+    @Override
+    public double getMeanLatency()
+    {
+        return latencies.getMean() / 1e6;
+    }
+
+    @Override
+    public double getP50Latency()
+    {
+        return latencies.getP50() / 1e6;
+    }
+
+    @Override
+    public double getP99Latency()
+    {
+        return latencies.getP99() / 1e6;
+    }
+
+    @Override
+    public double getMaxLatency()
+    {
+        return latencies.getMax() / 1e6;
+    }
+
+    @Override
+    public double getMeanConversion()
+    {
+        return conversions.getMean() / 1e6;
+    }
+
+    @Override
+    public double getP99Conversion()
+    {
+        return conversions.getP99() / 1e6;
+    }
+
+    /**
+     * Gets the histogram of the latency from the arrival of the sensor frames to their display.
+     * @return The latencies, in nanoseconds.
+     */
+    public FrameStats getLatencies()
+    {
+        return latencies;
+    }
+
+    @Override
+    public void reset()
+    {
+        displayed.set(0);
+        failures.set(0);
+        latencies.reset();
+        conversions.reset();
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s: displayed=%d coalesced=%d dropped=%d failures=%d latency %s", name, getDisplayed(), getCoalesced(), getDropped(), getFailures(), latencies);
+    }
+}
@@ -0,0 +1,79 @@
+package canvas;
+
+/**
+ * The JMX view of a CVWindow. Times are in milliseconds.
+ * @author Ricardo
+ */
+public interface WindowMetricsMBean
+{
+    /**
+     * Gets the name of the window.
+     * @return The name.
+     */
+    String getName();
+
+    /**
+     * Gets the number of Mats displayed.
+     * @return The number of Mats.
+     */
+    long getDisplayed();
+
+    /**
+     * Gets the number of Mats replaced by a newer one before the render thread took them.
+     * @return The number of coalesced Mats.
+     */
+    long getCoalesced();
+
+    /**
+     * Gets the number of frames rendered but replaced before Swing painted them.
+     * @return The number of dropped frames.
+     */
+    long getDropped();
+
+    /**
+     * Gets the number of Mats that could not be displayed, such as Mats of an unsupported type or empty ones.
+     * @return The number of failed Mats.
+     */
+    long getFailures();
+
+    /**
+     * Gets the mean time from the arrival of a sensor frame to its display, for the Mats shown from a sensor callback or with a known origin.
+     * @return The latency in milliseconds.
+     */
+    double getMeanLatency();
+
+    /**
+     * Gets the 50th percentile of the latency.
+     * @return The latency in milliseconds.
+     */
+    double getP50Latency();
+
+    /**
+     * Gets the 99th percentile of the latency.
+     * @return The latency in milliseconds.
+     */
+    double getP99Latency();
+
+    /**
+     * Gets the highest latency.
+     * @return The latency in milliseconds.
+     */
+    double getMaxLatency();
+
+    /**
+     * Gets the mean time the conversion of a Mat for display takes.
+     * @return The time in milliseconds.
+     */
+    double getMeanConversion();
+
+    /**
+     * Gets the 99th percentile of the conversion time.
+     * @return The time in milliseconds.
+     */
+    double getP99Conversion();
+
+    /**
+     * Clears the displayed and failure counts, the latencies and the conversion times.
+     */
+    void reset();
+}
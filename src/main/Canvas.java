@@ -1,6 +1,7 @@
 package main;
 
-import canvas.CVWindow;
+import canvas.CVMosaic;
+import canvas.DepthColorizer;
 import org.opencv.core.Mat;
 import org.openni.OpenNI;
 import sensor3D.Sensor3D;
@@ -16,27 +17,30 @@ public class Canvas
     
     public static void main(String[] args)
     {
-        CVWindow.create("Depth");
-        CVWindow.create("IR");
+        CVMosaic mosaic = new CVMosaic("Sensor", 2, 1, 640, 480);
+        mosaic.setColorizer("Depth", new DepthColorizer());
+        DepthColorizer ir = new DepthColorizer();
+        ir.setPalette(DepthColorizer.Palette.GRAY);
+        mosaic.setColorizer("IR", ir);
         
         Sensor3D sensor = new Sensor3D(0){
             
             @Override
             public void readDepth(Mat depthCam)
             {
-                CVWindow.show("Depth", depthCam);
+                mosaic.show("Depth", depthCam);
             }
             
             @Override
             public void readRGB(Mat rgbCam)
             {
-                CVWindow.show("RGB", rgbCam);
+                mosaic.show("RGB", rgbCam);
             }
             
             @Override
             public void readIR(Mat irCam)
             {
-                CVWindow.show("IR", irCam);
+                mosaic.show("IR", irCam);
             }
         };
         
@@ -45,8 +49,7 @@ public class Canvas
         
         sensor.start(Sensor3D.DEPTH | Sensor3D.IR);
         
-        CVWindow.setOnClose("Depth", ()->{sensor.close();CVWindow.destroyAll();});
-        CVWindow.setOnClose("IR", ()->{sensor.close();CVWindow.destroyAll();});
+        mosaic.setOnClose(sensor::close);
         
         //new Sensor3DTest();
         
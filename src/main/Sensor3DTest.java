@@ -7,6 +7,7 @@
 package main;
 
 import canvas.CVCanvas;
+import canvas.DepthColorizer;
 import org.opencv.core.Mat;
 import sensor3D.Sensor3D;
 
@@ -17,6 +18,10 @@ import sensor3D.Sensor3D;
 public class Sensor3DTest extends CVCanvas
 {
     Sensor3D sensor;
+    DepthColorizer depthColors = new DepthColorizer();
+    DepthColorizer IRColors = new DepthColorizer();
+    Mat depth = new Mat();
+    Mat IR = new Mat();
     
     @Override
     public void setup()
@@ -29,6 +34,7 @@ public class Sensor3DTest extends CVCanvas
         sensor.enableEvent(Sensor3D.DEPTH | Sensor3D.IR, false);
         sensor.start(Sensor3D.DEPTH | Sensor3D.IR);
         
+        IRColors.setPalette(DepthColorizer.Palette.GRAY);
         size(640*2, 480);
         background(255, 0, 0);
     }
@@ -36,8 +42,12 @@ public class Sensor3DTest extends CVCanvas
     @Override
     public void draw()
     {
-        image(sensor.getDepth(), 0, 0);
-        image(sensor.getIR(), 640, 0);
+        colorMap(depthColors);
+        if(sensor.getDepth(depth))
+            image(depth, 0, 0);
+        colorMap(IRColors);
+        if(sensor.getIR(IR))
+            image(IR, 640, 0);
     }
     
     @Override
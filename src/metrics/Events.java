@@ -0,0 +1,168 @@
+package metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * The JFR events of the frame stages. This is the only class that uses jdk.jfr, and Metrics only loads it when JFR is available.
+ * Events are created and dropped at once while they are disabled, which the JIT turns into a single check.
+ * @author Ricardo
+ */
+final class Events
+{
+    private Events()
+    {
+    }
+
+    static void frame(String stream, long sequence, long timestamp, long interval)
+    {
+        FrameEvent e = new FrameEvent();
+        if(!e.isEnabled())
+            return;
+        e.stream = stream;
+        e.sequence = sequence;
+        e.timestamp = timestamp;
+        e.interval = interval;
+        e.commit();
+    }
+
+    static void conversion(int type, int width, int height, long nanos)
+    {
+        ConversionEvent e = new ConversionEvent();
+        if(!e.isEnabled())
+            return;
+        e.type = type;
+        e.width = width;
+        e.height = height;
+        e.time = nanos;
+        e.commit();
+    }
+
+    static void redraw(String canvas, long nanos)
+    {
+        RedrawEvent e = new RedrawEvent();
+        if(!e.isEnabled())
+            return;
+        e.canvas = canvas;
+        e.time = nanos;
+        e.commit();
+    }
+
+    static void display(String window, long latency)
+    {
+        DisplayEvent e = new DisplayEvent();
+        if(!e.isEnabled())
+            return;
+        e.window = window;
+        e.latency = latency;
+        e.commit();
+    }
+
+    static void stage(String stage, long nanos, int queue)
+    {
+        StageEvent e = new StageEvent();
+        if(!e.isEnabled())
+            return;
+        e.stage = stage;
+        e.time = nanos;
+        e.queue = queue;
+        e.commit();
+    }
+
+    @Name("sensor3D.Frame")
+    @Label("Sensor Frame")
+    @Description("A frame delivered by a sensor stream")
+    @Category({"Sensor3D", "Capture"})
+    @StackTrace(false)
+    static final class FrameEvent extends Event
+    {
+        @Label("Stream")
+        String stream;
+
+        @Label("Sequence")
+        long sequence;
+
+        @Label("Device Timestamp")
+        @Description("The timestamp given by the sensor, in microseconds")
+        long timestamp;
+
+        @Label("Interval")
+        @Timespan(Timespan.NANOSECONDS)
+        long interval;
+    }
+
+    @Name("canvas.Conversion")
+    @Label("Conversion")
+    @Description("A Mat converted for display")
+    @Category({"Sensor3D", "Display"})
+    @StackTrace(false)
+    static final class ConversionEvent extends Event
+    {
+        @Label("CvType")
+        int type;
+
+        @Label("Width")
+        int width;
+
+        @Label("Height")
+        int height;
+
+        @Label("Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long time;
+    }
+
+    @Name("canvas.Redraw")
+    @Label("Redraw")
+    @Description("A frame of a CVCanvas flushed and presented")
+    @Category({"Sensor3D", "Display"})
+    @StackTrace(false)
+    static final class RedrawEvent extends Event
+    {
+        @Label("Canvas")
+        String canvas;
+
+        @Label("Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long time;
+    }
+
+    @Name("canvas.Display")
+    @Label("Display")
+    @Description("A sensor frame shown in a window")
+    @Category({"Sensor3D", "Display"})
+    @StackTrace(false)
+    static final class DisplayEvent extends Event
+    {
+        @Label("Window")
+        String window;
+
+        @Label("Latency")
+        @Description("From the arrival of the sensor frame to the update of the window")
+        @Timespan(Timespan.NANOSECONDS)
+        long latency;
+    }
+
+    @Name("pipeline.Stage")
+    @Label("Pipeline Stage")
+    @Description("The work of a pipeline stage on an item")
+    @Category({"Sensor3D", "Pipeline"})
+    @StackTrace(false)
+    static final class StageEvent extends Event
+    {
+        @Label("Stage")
+        String stage;
+
+        @Label("Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long time;
+
+        @Label("Queue Depth")
+        int queue;
+    }
+}
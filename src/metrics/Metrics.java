@@ -0,0 +1,163 @@
+package metrics;
+
+import java.lang.management.ManagementFactory;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Publishes the runtime metrics of the sensors, pipelines and displays as JMX MBeans and JFR events, so they can be watched with JConsole, Mission Control or jcmd.
+ * MBeans only read counters that are kept anyway, so they cost nothing until they are read. They can be left unregistered with -Dmetrics.jmx=false.
+ * JFR events are emitted only while a recording enables them, and cost a check per frame otherwise. Without JFR in the JVM, or with -Dmetrics.jfr=false, not even the event classes are loaded.
+ * Times are in nanoseconds from System.nanoTime.
+ * @author Ricardo
+ */
+public final class Metrics
+{
+    /**
+     * True if the JVM has JFR and events were not turned off.
+     */
+    public static final boolean JFR = !"false".equals(System.getProperty("metrics.jfr")) && available("jdk.jfr.Event");
+    private static final boolean JMX = !"false".equals(System.getProperty("metrics.jmx"));
+
+    private static final ThreadLocal<long[]> ORIGIN = ThreadLocal.withInitial(() -> new long[]{-1});
+
+    private Metrics()
+    {
+    }
+
+    private static boolean available(String type)
+    {
+        try
+        {
+            Class.forName(type, false, Metrics.class.getClassLoader());
+            return true;
+        }
+        catch(ClassNotFoundException | LinkageError e)
+        {
+            return false;
+        }
+    }
+
+    /**
+     * Registers an MBean in the platform MBean server, replacing any registered with the same name.
+     * @param domain The domain, such as the package of the object.
+     * @param type The type key of the name, such as the class of the object.
+     * @param name The name key, quoted as needed.
+     * @param mbean The MBean.
+     * @return The name it was registered under, or null if JMX is off or the registration failed.
+     */
+    public static ObjectName register(String domain, String type, String name, Object mbean)
+    {
+        if(!JMX)
+            return null;
+        try
+        {
+            ObjectName id = new ObjectName(domain + ":type=" + type + ",name=" + ObjectName.quote(name));
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if(server.isRegistered(id))
+                server.unregisterMBean(id);
+            server.registerMBean(mbean, id);
+            return id;
+        }
+        catch(JMException e)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Unregisters an MBean.
+     * @param id The name returned by register, or null.
+     */
+    public static void unregister(ObjectName id)
+    {
+        if(id == null)
+            return;
+        try
+        {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(id);
+        }
+        catch(JMException e)
+        {
+        }
+    }
+
+    /**
+     * Sets the time the sensor frame being handled by this thread arrived, so displays can measure the latency of what they show.
+     * @param arrival The System.nanoTime the frame arrived at, or -1 when the thread is done with it.
+     */
+    public static void setOrigin(long arrival)
+    {
+        ORIGIN.get()[0] = arrival;
+    }
+
+    /**
+     * Gets the time the sensor frame being handled by this thread arrived.
+     * @return The System.nanoTime the frame arrived at, or -1 if the thread is not handling a sensor frame.
+     */
+    public static long getOrigin()
+    {
+        return ORIGIN.get()[0];
+    }
+
+    /**
+     * Emits the arrival of a sensor frame.
+     * @param stream The name of the stream.
+     * @param sequence The sequence number of the frame.
+     * @param timestamp The device timestamp, in microseconds.
+     * @param interval The time since the previous frame of the stream arrived, or -1 for the first.
+     */
+    public static void frame(String stream, long sequence, long timestamp, long interval)
+    {
+        if(JFR)
+            Events.frame(stream, sequence, timestamp, interval);
+    }
+
+    /**
+     * Emits the conversion of a Mat for display.
+     * @param type The CvType of the source Mat.
+     * @param width The width of the image.
+     * @param height The height of the image.
+     * @param nanos The time the conversion took.
+     */
+    public static void conversion(int type, int width, int height, long nanos)
+    {
+        if(JFR)
+            Events.conversion(type, width, height, nanos);
+    }
+
+    /**
+     * Emits a redraw of a canvas.
+     * @param canvas The name of the canvas.
+     * @param nanos The time the redraw took.
+     */
+    public static void redraw(String canvas, long nanos)
+    {
+        if(JFR)
+            Events.redraw(canvas, nanos);
+    }
+
+    /**
+     * Emits the display of a sensor frame.
+     * @param window The name of the window.
+     * @param latency The time from the arrival of the sensor frame to its display.
+     */
+    public static void display(String window, long latency)
+    {
+        if(JFR)
+            Events.display(window, latency);
+    }
+
+    /**
+     * Emits the work of a pipeline stage on an item.
+     * @param stage The name of the stage.
+     * @param nanos The time the work took.
+     * @param queue The depth of the queue of the stage after the item was taken.
+     */
+    public static void stage(String stage, long nanos, int queue)
+    {
+        if(JFR)
+            Events.stage(stage, nanos, queue);
+    }
+}
@@ -0,0 +1,145 @@
+package pipeline;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import org.opencv.core.Mat;
+import sensor3D.FrameSource;
+
+/**
+ * An image travelling through a Pipeline, with the source and timing of the sensor frame it comes from.
+ * Frames are reference counted and go back to their FramePool when the last reference is released, so the Mat is reused without allocating.
+ * Stages release the frames they receive on their own, so only code that keeps a frame past the call it got it in needs retain and release.
+ * A frame passed to several outputs is shared, not copied, so it is read only. Work that writes the image must take it from mutable, which copies it only while it is shared.
+ * @author Ricardo
+ */
+public final class Frame implements AutoCloseable
+{
+    private final FramePool pool;
+    private final Mat mat = new Mat();
+    private final AtomicInteger references = new AtomicInteger();
+    private FrameSource source;
+    private long timestamp;
+    private long sequence;
+    private long arrival;
+
+    Frame(FramePool pool)
+    {
+        this.pool = pool;
+    }
+
+    Frame reset(FrameSource source, long timestamp, long sequence, long arrival)
+    {
+        this.source = source;
+        this.timestamp = timestamp;
+        this.sequence = sequence;
+        this.arrival = arrival;
+        references.set(1);
+        return this;
+    }
+
+    /**
+     * Gets the image. It may only be written through a frame returned by mutable or obtained from the pool, until that frame is passed on.
+     * @return The Mat of the frame.
+     */
+    public Mat getMat()
+    {
+        return mat;
+    }
+
+    /**
+     * Gets a frame whose image the caller may write, copying this one if other outputs share it.
+     * The stage releases its input as usual, so work that writes in place returns the frame given by this call.
+     * @return This frame if no one else holds it, or a copy with one reference, obtained from the pool, which the caller must pass on or release.
+     */
+    public Frame mutable()
+    {
+        if(references.get() == 1)
+            return this;
+        Frame copy = pool.obtain(this);
+        mat.copyTo(copy.mat);
+        return copy;
+    }
+
+    /**
+     * Checks if other outputs hold the frame too, so its image must not be written.
+     * @return True if the frame has more than one reference.
+     */
+    public boolean isShared()
+    {
+        return references.get() > 1;
+    }
+
+    /**
+     * Gets the source of the sensor frame.
+     * @return The source, or null if the frame was not made from a sensor frame.
+     */
+    public FrameSource getSource()
+    {
+        return source;
+    }
+
+    /**
+     * Gets the device timestamp of the sensor frame.
+     * @return The timestamp in microseconds.
+     */
+    public long getTimestamp()
+    {
+        return timestamp;
+    }
+
+    /**
+     * Gets the sequence number of the sensor frame in its ring.
+     * @return The sequence number.
+     */
+    public long getSequence()
+    {
+        return sequence;
+    }
+
+    /**
+     * Gets the time the sensor frame arrived on this machine, to pass to CVWindow.show and measure the display latency.
+     * @return The System.nanoTime the sensor frame was published at.
+     */
+    public long getArrival()
+    {
+        return arrival;
+    }
+
+    /**
+     * Adds a reference, to keep the frame after the call that got it returns.
+     * @return This frame.
+     * @throws IllegalStateException If the frame was already given back to its pool.
+     */
+    public Frame retain()
+    {
+        int r;
+        do
+        {
+            r = references.get();
+            if(r <= 0)
+                throw new IllegalStateException("The frame was already released");
+        }
+        while(!references.compareAndSet(r, r + 1));
+        return this;
+    }
+
+    /**
+     * Drops a reference. The frame goes back to its pool when none is left and must not be used after that.
+     */
+    public void release()
+    {
+        int r = references.decrementAndGet();
+        if(r == 0)
+            pool.recycle(this);
+        else if(r < 0)
+            throw new IllegalStateException("The frame was released more times than retained");
+    }
+
+    /**
+     * Same as release, to be used with try-with-resources.
+     */
+    @Override
+    public void close()
+    {
+        release();
+    }
+}
@@ -0,0 +1,88 @@
+package pipeline;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import org.opencv.core.Mat;
+import sensor3D.FrameSource;
+import sensor3D.SensorFrame;
+
+/**
+ * A pool of Frames whose Mats are reused once released, so a running pipeline does not allocate.
+ * The pool grows to the number of frames in flight, which the queues of the stages bound. Any thread can obtain and release frames.
+ * @author Ricardo
+ */
+public final class FramePool
+{
+    private final ConcurrentLinkedQueue<Frame> free = new ConcurrentLinkedQueue<>();
+    private final AtomicLong allocated = new AtomicLong();
+
+    /**
+     * Obtains a frame for the result of a stage, with the source and timing of another.
+     * @param from The frame the result is computed from.
+     * @return A frame with one reference. Its Mat keeps the size and type of its last use and is meant to be written with create or copyTo.
+     */
+    public Frame obtain(Frame from)
+    {
+        return take().reset(from.getSource(), from.getTimestamp(), from.getSequence(), from.getArrival());
+    }
+
+    /**
+     * Copies an image into a pooled frame.
+     * @param source The source of the image, or null.
+     * @param mat The image. It is only read during the call.
+     * @param timestamp The device timestamp in microseconds.
+     * @param sequence The sequence number.
+     * @param arrival The System.nanoTime the image arrived at.
+     * @return A frame with one reference.
+     */
+    public Frame copy(FrameSource source, Mat mat, long timestamp, long sequence, long arrival)
+    {
+        Frame frame = take().reset(source, timestamp, sequence, arrival);
+        mat.copyTo(frame.getMat());
+        return frame;
+    }
+
+    /**
+     * Copies a sensor frame into a pooled frame.
+     * @param source The source that published the frame.
+     * @param frame The sensor frame. It is only read during the call.
+     * @return A frame with one reference.
+     */
+    public Frame copy(FrameSource source, SensorFrame frame)
+    {
+        return copy(source, frame.getMat(), frame.getTimestamp(), frame.getSequence(), frame.getArrival());
+    }
+
+    /**
+     * Gets the number of frames the pool has created.
+     * @return The number of frames allocated.
+     */
+    public long getAllocated()
+    {
+        return allocated.get();
+    }
+
+    /**
+     * Releases the Mats of the free frames. Frames in flight are freed when collected.
+     */
+    public void clear()
+    {
+        Frame frame;
+        while((frame = free.poll()) != null)
+            frame.getMat().release();
+    }
+
+    void recycle(Frame frame)
+    {
+        free.offer(frame);
+    }
+
+    private Frame take()
+    {
+        Frame frame = free.poll();
+        if(frame != null)
+            return frame;
+        allocated.incrementAndGet();
+        return new Frame(this);
+    }
+}
@@ -0,0 +1,108 @@
+package pipeline;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import sensor3D.FrameListener;
+import sensor3D.FrameSource;
+import sensor3D.SensorFrame;
+
+/**
+ * The entry of sensor frames into a Pipeline. Set it as the listener of a FrameSource, such as Kinect2.getDepthSource(), or with Sensor3D.setFrameListener.
+ * Each frame is copied into a pooled Frame and passed to the outputs, so the thread of the source only pays for the copy and returns to the driver.
+ * Outputs that are stages queue the frame; sinks run on the thread of the source.
+ * @author Ricardo
+ */
+public class Input implements FrameListener
+{
+    private final String name;
+    private final FramePool pool;
+    private final FrameSource only;
+    private final Outputs<Frame> outputs = new Outputs<>();
+    private final AtomicLong frames = new AtomicLong();
+    private final AtomicLong time = new AtomicLong();
+
+    /**
+     * Creates an input.
+     * @param name The name of the input.
+     * @param pool The pool the frames are copied into.
+     * @param only The source to take frames from, or null to take the frames of every source it listens to.
+     */
+    public Input(String name, FramePool pool, FrameSource only)
+    {
+        this.name = name;
+        this.pool = pool;
+        this.only = only;
+    }
+
+    /**
+     * Adds an output the frames are passed to.
+     * @param <T> The type of the output.
+     * @param next A stage or a sink.
+     * @return The output, to chain further stages.
+     */
+    public <T extends Consumer<? super Frame>> T to(T next)
+    {
+        outputs.add(next);
+        return next;
+    }
+
+    /**
+     * Removes an output.
+     * @param next The output to remove.
+     */
+    public void remove(Consumer<? super Frame> next)
+    {
+        outputs.remove(next);
+    }
+
+    @Override
+    public void onFrame(FrameSource source, SensorFrame frame)
+    {
+        if(only != null && source != only)
+            return;
+        long start = System.nanoTime();
+        Frame copy = pool.copy(source, frame);
+        time.addAndGet(System.nanoTime() - start);
+        frames.incrementAndGet();
+        outputs.emit(copy);
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * Gets the number of frames that entered the pipeline.
+     * @return The number of frames.
+     */
+    public long getFrames()
+    {
+        return frames.get();
+    }
+
+    /**
+     * Gets the time spent copying frames on the thread of the source.
+     * @return The time in nanoseconds.
+     */
+    public long getTime()
+    {
+        return time.get();
+    }
+
+    /**
+     * Gets the number of frames whose sinks threw an exception.
+     * @return The number of failures.
+     */
+    public long getFailures()
+    {
+        return outputs.getFailures();
+    }
+
+    @Override
+    public String toString()
+    {
+        long n = getFrames();
+        return String.format("%s: frames=%d copy=%.3fms failures=%d", name, n, n == 0 ? 0 : getTime() / 1e6 / n, getFailures());
+    }
+}
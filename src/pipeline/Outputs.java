@@ -0,0 +1,102 @@
+package pipeline;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * The consumers an Input or a Stage passes its items to, and the ownership rules of Frames between them.
+ * A Stage takes over the reference of the item it is given. Any other consumer is a sink, called on the thread of the producer, and the reference is released when it returns.
+ * With several consumers a Frame is retained once per extra consumer and shared without copying. Writers copy on write through Frame.mutable.
+ * @author Ricardo
+ */
+final class Outputs<T>
+{
+    private final CopyOnWriteArrayList<Consumer<? super T>> targets = new CopyOnWriteArrayList<>();
+    private final AtomicLong failures = new AtomicLong();
+    private volatile RuntimeException lastError;
+
+    void add(Consumer<? super T> target)
+    {
+        if(target == null)
+            throw new IllegalArgumentException("The output of a stage cannot be null");
+        targets.add(target);
+    }
+
+    void remove(Consumer<? super T> target)
+    {
+        targets.remove(target);
+    }
+
+    /**
+     * Passes an item to every consumer, taking over the reference of the caller.
+     * @param item The item.
+     */
+    @SuppressWarnings("unchecked")
+    void emit(T item)
+    {
+        Object[] array = targets.toArray();
+        if(array.length == 0)
+        {
+            release(item);
+            return;
+        }
+        for(int i = 1; i < array.length; i++)
+            retain(item);
+        for(Object target : array)
+        {
+            Consumer<? super T> consumer = (Consumer<? super T>)target;
+            if(consumer instanceof Stage)
+            {
+                consumer.accept(item);
+                continue;
+            }
+            try
+            {
+                consumer.accept(item);
+            }
+            catch(RuntimeException e)
+            {
+                failed(e);
+            }
+            finally
+            {
+                release(item);
+            }
+        }
+    }
+
+    void failed(RuntimeException e)
+    {
+        failures.incrementAndGet();
+        lastError = e;
+    }
+
+    long getFailures()
+    {
+        return failures.get();
+    }
+
+    RuntimeException getLastError()
+    {
+        return lastError;
+    }
+
+    void reset()
+    {
+        failures.set(0);
+        lastError = null;
+    }
+
+    static void retain(Object item)
+    {
+        if(item instanceof Frame)
+            ((Frame)item).retain();
+    }
+
+    static void release(Object item)
+    {
+        if(item instanceof Frame)
+            ((Frame)item).release();
+    }
+}
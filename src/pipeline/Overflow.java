@@ -0,0 +1,21 @@
+package pipeline;
+
+/**
+ * What a Stage does with a new item when its queue is full.
+ * @author Ricardo
+ */
+public enum Overflow
+{
+    /**
+     * Drops the oldest queued item to make room, so the stage works on recent items and never holds back the producer.
+     */
+    DROP_OLDEST,
+    /**
+     * Makes the producer wait for room, passing the backpressure upstream. Nothing is dropped while the stage runs.
+     */
+    BLOCK,
+    /**
+     * Drops every queued item, keeping only the newest. Suits displays and analysis that only care about the current frame.
+     */
+    LATEST_ONLY
+}
@@ -0,0 +1,135 @@
+package pipeline;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+import sensor3D.FrameSource;
+
+/**
+ * A graph of stages fed by sensor frames, taking the processing out of the threads of the sources.
+ * Inputs copy the frames of Sensor3D or Kinect2 sources into pooled Frames. Stages, each with its own thread and bounded queue, filter, convert or analyze them,
+ * and sinks such as CVWindow.show, a CVCanvas or a StreamRecorder consume the results. Frames sent to several outputs are shared, so stages that write in place use Frame.mutable. For example:
+ * <pre>
+ * Pipeline pipeline = new Pipeline();
+ * Input depth = pipeline.input("depth", sensor.getSource(Sensor3D.DEPTH));
+ * sensor.setFrameListener(depth);
+ * Stage&lt;Frame, Frame&gt; smooth = pipeline.stage("filter", f -&gt; { Frame w = f.mutable(); filter.filter(w.getMat()); return w; }, 2, Overflow.LATEST_ONLY);
+ * depth.to(smooth).to(f -&gt; CVWindow.show("Depth", f.getMat(), f.getArrival()));
+ * pipeline.start();
+ * </pre>
+ * @author Ricardo
+ */
+public class Pipeline
+{
+    private final FramePool pool = new FramePool();
+    private final List<Input> inputs = new CopyOnWriteArrayList<>();
+    private final List<Stage<?, ?>> stages = new CopyOnWriteArrayList<>();
+    private boolean running;
+
+    /**
+     * Creates an input of the pipeline.
+     * @param name The name of the input.
+     * @param source The source to take frames from, or null to take the frames of every source the input listens to.
+     * @return The input, to be set as a listener of the source.
+     */
+    public Input input(String name, FrameSource source)
+    {
+        Input input = new Input(name, pool, source);
+        inputs.add(input);
+        return input;
+    }
+
+    /**
+     * Creates a stage of the pipeline. It is started with the pipeline, or right away if the pipeline is running.
+     * @param <I> The type of the items the stage takes.
+     * @param <O> The type of the results of the stage.
+     * @param name The name of the stage.
+     * @param work The work done on each item, returning the result to pass on, or null to pass nothing.
+     * @param capacity The number of items the queue holds.
+     * @param overflow What to do when the queue is full.
+     * @return The stage.
+     */
+    public <I, O> Stage<I, O> stage(String name, Function<? super I, ? extends O> work, int capacity, Overflow overflow)
+    {
+        Stage<I, O> stage = new Stage<>(name, work, capacity, overflow);
+        add(stage);
+        return stage;
+    }
+
+    /**
+     * Adds a stage created elsewhere, to start, stop and report it with the pipeline.
+     * @param stage The stage.
+     */
+    public synchronized void add(Stage<?, ?> stage)
+    {
+        stages.add(stage);
+        if(running)
+            stage.start();
+    }
+
+    /**
+     * Starts every stage.
+     */
+    public synchronized void start()
+    {
+        running = true;
+        for(Stage<?, ?> stage : stages)
+            stage.start();
+    }
+
+    /**
+     * Stops every stage, from the first to the last, dropping the queued items, and frees the pooled frames.
+     */
+    public synchronized void stop()
+    {
+        running = false;
+        for(Stage<?, ?> stage : stages)
+            stage.stop();
+        pool.clear();
+    }
+
+    /**
+     * Gets the pool the frames of the pipeline come from, to obtain the frames of stage results.
+     * @return The pool.
+     */
+    public FramePool getPool()
+    {
+        return pool;
+    }
+
+    public List<Input> getInputs()
+    {
+        return new ArrayList<>(inputs);
+    }
+
+    public List<Stage<?, ?>> getStages()
+    {
+        return new ArrayList<>(stages);
+    }
+
+    /**
+     * Resets the counters of every stage.
+     */
+    public void reset()
+    {
+        for(Stage<?, ?> stage : stages)
+            stage.reset();
+    }
+
+    /**
+     * Describes the inputs and the stages, one per line, with their throughput, queues and times.
+     * @return The statistics of the pipeline.
+     */
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder();
+        for(Input input : inputs)
+            sb.append(input).append('\n');
+        for(Stage<?, ?> stage : stages)
+            sb.append(stage).append('\n');
+        sb.append("pool=").append(pool.getAllocated());
+        return sb.toString();
+    }
+}
@@ -0,0 +1,375 @@
+package pipeline;
+
+import canvas.FrameStats;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import metrics.Metrics;
+
+/**
+ * A step of a Pipeline: it takes items from a bounded queue and runs its work on them on its own single thread executor, so a slow stage never stalls its producer.
+ * What happens when the queue is full is set by its Overflow policy. The results are passed to the outputs of the stage, other stages or sinks, forming a chain or a graph.
+ * Work that returns null passes nothing on, so stages can also filter. Items are processed in order.
+ * Frames are released once the work returns, unless the work returns the same frame, as an in-place filter does, which then passes on.
+ * Frames passed to several outputs are shared between their threads, so work that writes in place must write the frame returned by Frame.mutable, which is a copy while the frame is shared.
+ * Results that are Frames should be obtained from the FramePool of the pipeline.
+ * @author Ricardo
+ * @param <I> The type of the items the stage takes.
+ * @param <O> The type of the results of the stage.
+ */
+public class Stage<I, O> implements Consumer<I>
+{
+    private final String name;
+    private final Function<? super I, ? extends O> work;
+    private final int capacity;
+    private final Overflow overflow;
+    private final Outputs<O> outputs = new Outputs<>();
+    private final ArrayDeque<I> queue = new ArrayDeque<>();
+    private ExecutorService executor;
+    private Thread worker;
+    private boolean running;
+    private int maxDepth;
+
+    private final AtomicLong received = new AtomicLong();
+    private final AtomicLong processed = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final FrameStats times = new FrameStats();
+    private volatile long started = System.nanoTime();
+
+    /**
+     * Creates a stopped stage.
+     * @param name The name of the stage and of its thread.
+     * @param work The work done on each item, returning the result to pass on, or null to pass nothing.
+     * @param capacity The number of items the queue holds, at least 1. LATEST_ONLY always holds 1.
+     * @param overflow What to do when the queue is full.
+     */
+    public Stage(String name, Function<? super I, ? extends O> work, int capacity, Overflow overflow)
+    {
+        if(capacity < 1)
+            throw new IllegalArgumentException("The queue of a stage needs room for an item: " + capacity);
+        this.name = name;
+        this.work = work;
+        this.capacity = overflow == Overflow.LATEST_ONLY ? 1 : capacity;
+        this.overflow = overflow;
+    }
+
+    /**
+     * Adds an output the results are passed to, in the order outputs were added.
+     * @param <T> The type of the output.
+     * @param next A stage, which queues the results, or a sink, which is called on the thread of this stage.
+     * @return The output, to chain further stages.
+     */
+    public <T extends Consumer<? super O>> T to(T next)
+    {
+        outputs.add(next);
+        return next;
+    }
+
+    /**
+     * Removes an output.
+     * @param next The output to remove.
+     */
+    public void remove(Consumer<? super O> next)
+    {
+        outputs.remove(next);
+    }
+
+    /**
+     * Queues an item, taking over its reference. The item is dropped if the stage is stopped.
+     * With the BLOCK policy the caller waits while the queue is full.
+     * @param item The item.
+     */
+    @Override
+    public void accept(I item)
+    {
+        received.incrementAndGet();
+        synchronized(queue)
+        {
+            if(overflow == Overflow.BLOCK)
+                while(running && queue.size() >= capacity)
+                {
+                    try
+                    {
+                        queue.wait();
+                    }
+                    catch(InterruptedException e)
+                    {
+                        Thread.currentThread().interrupt();
+                        drop(item);
+                        return;
+                    }
+                }
+            if(!running)
+            {
+                drop(item);
+                return;
+            }
+            while(queue.size() >= capacity)
+                drop(queue.poll());
+            queue.add(item);
+            maxDepth = Math.max(maxDepth, queue.size());
+            queue.notifyAll();
+        }
+    }
+
+    /**
+     * Starts the executor of the stage. It does nothing if the stage is running.
+     */
+    public void start()
+    {
+        synchronized(queue)
+        {
+            if(running)
+                return;
+            running = true;
+            executor = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, name);
+                t.setDaemon(true);
+                worker = t;
+                return t;
+            });
+            executor.execute(this::run);
+        }
+        started = System.nanoTime();
+    }
+
+    /**
+     * Stops the stage, dropping the queued items, and waits for the item in progress, unless called from the stage itself.
+     */
+    public void stop()
+    {
+        ExecutorService e;
+        Thread t;
+        synchronized(queue)
+        {
+            if(!running)
+                return;
+            running = false;
+            while(!queue.isEmpty())
+                drop(queue.poll());
+            queue.notifyAll();
+            e = executor;
+            t = worker;
+            executor = null;
+        }
+        e.shutdown();
+        if(t == Thread.currentThread())
+            return;
+        boolean interrupted = false;
+        while(!e.isTerminated())
+        {
+            try
+            {
+                e.awaitTermination(1, TimeUnit.SECONDS);
+            }
+            catch(InterruptedException ex)
+            {
+                interrupted = true;
+            }
+        }
+        if(interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    /**
+     * Checks if the stage takes items.
+     * @return True between start and stop.
+     */
+    public boolean isRunning()
+    {
+        synchronized(queue)
+        {
+            return running;
+        }
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public Overflow getOverflow()
+    {
+        return overflow;
+    }
+
+    public int getCapacity()
+    {
+        return capacity;
+    }
+
+    /**
+     * Gets the number of items waiting.
+     * @return The current depth of the queue.
+     */
+    public int getQueueDepth()
+    {
+        synchronized(queue)
+        {
+            return queue.size();
+        }
+    }
+
+    /**
+     * Gets the deepest the queue has been.
+     * @return The maximum depth since the stage was created or reset.
+     */
+    public int getMaxQueueDepth()
+    {
+        synchronized(queue)
+        {
+            return maxDepth;
+        }
+    }
+
+    /**
+     * Gets the number of items given to the stage.
+     * @return The number of items received, including the dropped ones.
+     */
+    public long getReceived()
+    {
+        return received.get();
+    }
+
+    /**
+     * Gets the number of items the work was done on.
+     * @return The number of items processed.
+     */
+    public long getProcessed()
+    {
+        return processed.get();
+    }
+
+    /**
+     * Gets the number of items dropped by the overflow policy or because the stage was stopped.
+     * @return The number of dropped items.
+     */
+    public long getDropped()
+    {
+        return dropped.get();
+    }
+
+    /**
+     * Gets the number of items whose work or sinks threw an exception.
+     * @return The number of failures.
+     */
+    public long getFailures()
+    {
+        return outputs.getFailures();
+    }
+
+    /**
+     * Gets the last exception thrown by the work or the sinks of the stage.
+     * @return The exception, or null if none was thrown.
+     */
+    public RuntimeException getLastError()
+    {
+        return outputs.getLastError();
+    }
+
+    /**
+     * Gets the time the work takes, not counting the outputs.
+     * @return The histogram of the work times, in nanoseconds.
+     */
+    public FrameStats getTimes()
+    {
+        return times;
+    }
+
+    /**
+     * Gets the rate items are processed at.
+     * @return The items per second since the stage was started or reset.
+     */
+    public double getThroughput()
+    {
+        long elapsed = System.nanoTime() - started;
+        return elapsed <= 0 ? 0 : processed.get() * 1e9 / elapsed;
+    }
+
+    /**
+     * Clears the counters and the times.
+     */
+    public void reset()
+    {
+        received.set(0);
+        processed.set(0);
+        dropped.set(0);
+        outputs.reset();
+        times.reset();
+        synchronized(queue)
+        {
+            maxDepth = queue.size();
+        }
+        started = System.nanoTime();
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s: %.1f/s queue=%d/%d max=%d received=%d dropped=%d failures=%d %s",
+                name, getThroughput(), getQueueDepth(), capacity, getMaxQueueDepth(), getReceived(), getDropped(), getFailures(), times);
+    }
+
+    private void drop(I item)
+    {
+        dropped.incrementAndGet();
+        Outputs.release(item);
+    }
+
+    private void run()
+    {
+        while(true)
+        {
+            I item;
+            int depth;
+            synchronized(queue)
+            {
+                while(running && queue.isEmpty())
+                {
+                    try
+                    {
+                        queue.wait();
+                    }
+                    catch(InterruptedException e)
+                    {
+                        return;
+                    }
+                }
+                if(!running)
+                    return;
+                item = queue.poll();
+                depth = queue.size();
+                queue.notifyAll();
+            }
+            process(item, depth);
+        }
+    }
+
+    private void process(I item, int depth)
+    {
+        long start = System.nanoTime();
+        O result;
+        try
+        {
+            result = work.apply(item);
+        }
+        catch(RuntimeException e)
+        {
+            outputs.failed(e);
+            Outputs.release(item);
+            return;
+        }
+        long time = System.nanoTime() - start;
+        times.record(time);
+        Metrics.stage(name, time, depth);
+        processed.incrementAndGet();
+        if(result != item)
+            Outputs.release(item);
+        if(result != null)
+            outputs.emit(result);
+    }
+}
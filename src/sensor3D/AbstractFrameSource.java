@@ -0,0 +1,151 @@
+package sensor3D;
+
+import java.util.function.Consumer;
+import org.opencv.core.Mat;
+
+/**
+ * Base of the frame sources. Keeps the size, rate and format, owns the ring, runs the processor on written frames and pushes published frames to the listener.
+ * @author Ricardo
+ */
+public abstract class AbstractFrameSource implements FrameSource
+{
+    /**
+     * Number of frames in the ring of each source.
+     */
+    public static final int RING_SIZE = 4;
+
+    private final int type;
+    private int width;
+    private int height;
+    private int fps;
+    private volatile FrameRing frames;
+    private volatile FrameListener listener;
+    private volatile Consumer<Mat> processor;
+
+    /**
+     * Creates the source and its ring.
+     * @param width The width in pixels.
+     * @param height The height in pixels.
+     * @param fps The nominal frame rate.
+     * @param type The CvType of the frames.
+     */
+    protected AbstractFrameSource(int width, int height, int fps, int type)
+    {
+        this.type = type;
+        this.fps = fps;
+        allocate(width, height);
+    }
+
+    private void allocate(int width, int height)
+    {
+        this.width = width;
+        this.height = height;
+        frames = new FrameRing(RING_SIZE, height, width, type);
+    }
+
+    @Override
+    public int getWidth()
+    {
+        return width;
+    }
+
+    @Override
+    public int getHeight()
+    {
+        return height;
+    }
+
+    @Override
+    public int getFrameRate()
+    {
+        return fps;
+    }
+
+    @Override
+    public int getType()
+    {
+        return type;
+    }
+
+    /**
+     * Sets the size and replaces the ring.
+     * @throws IllegalStateException If the source is running.
+     */
+    @Override
+    public void setSize(int width, int height)
+    {
+        if(isRunning())
+            throw new IllegalStateException("Cannot resize a running source");
+        if(width != this.width || height != this.height)
+            allocate(width, height);
+    }
+
+    /**
+     * @throws IllegalStateException If the source is running.
+     */
+    @Override
+    public void setFrameRate(int fps)
+    {
+        if(isRunning())
+            throw new IllegalStateException("Cannot change the rate of a running source");
+        this.fps = fps;
+    }
+
+    @Override
+    public FrameRing getFrames()
+    {
+        return frames;
+    }
+
+    @Override
+    public SensorFrame next(long sequence, long timeout) throws InterruptedException
+    {
+        return frames.awaitNext(sequence, timeout);
+    }
+
+    @Override
+    public void setListener(FrameListener listener)
+    {
+        this.listener = listener;
+    }
+
+    @Override
+    public void setProcessor(Consumer<Mat> processor)
+    {
+        this.processor = processor;
+    }
+
+    /**
+     * Claims a slot to write the next frame.
+     * @return The slot, or null if the frame must be dropped.
+     */
+    protected SensorFrame claim()
+    {
+        return frames.claim();
+    }
+
+    /**
+     * Publishes a written slot and pushes it to the listener.
+     * @param frame The slot returned by claim.
+     * @param timestamp The device timestamp in microseconds.
+     */
+    protected void publish(SensorFrame frame, long timestamp)
+    {
+        process(frame);
+        frames.publish(frame, timestamp);
+        FrameListener l = listener;
+        if(l != null)
+            l.onFrame(this, frame);
+    }
+
+    /**
+     * Runs the processor on a written slot, before it is published. publish calls it, so only sources that publish into the ring themselves need it.
+     * @param frame The slot returned by claim.
+     */
+    protected void process(SensorFrame frame)
+    {
+        Consumer<Mat> p = processor;
+        if(p != null)
+            p.accept(frame.getMat());
+    }
+}
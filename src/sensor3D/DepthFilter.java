@@ -0,0 +1,235 @@
+package sensor3D;
+
+import canvas.FrameStats;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+/**
+ * Cleans a stream of depth frames in place, keeping its own history between frames.
+ * The temporal stage blends each pixel into an exponential average, restarting it when the depth jumps by more than a threshold so moving objects do not smear,
+ * and fills holes with the last valid value for a limited number of frames. The optional spatial stage replaces each valid pixel by the median of the valid pixels around it.
+ * Both stages run in row bands in parallel on the common ForkJoin pool and the time of each one is recorded. Buffers are only allocated when the size changes.
+ * Calls are serialized. Use one filter per stream.
+ * @author Ricardo
+ */
+public class DepthFilter
+{
+    private static final int MIN_BAND_ROWS = 16;
+    private static final int MAX_BANDS = Runtime.getRuntime().availableProcessors() * 2;
+
+    private float alpha = 0.4f;
+    private int threshold = 1000;
+    private int holeFrames = 5;
+    private int median;
+
+    private int width = -1;
+    private int height = -1;
+    private short[] input = new short[0];
+    private short[] temporal = new short[0];
+    private short[] output = new short[0];
+    private float[] history = new float[0];
+    private byte[] age = new byte[0];
+    private int[][] windows = new int[0][];
+
+    private final FrameStats temporalTimes = new FrameStats();
+    private final FrameStats medianTimes = new FrameStats();
+    private final FrameStats times = new FrameStats();
+
+    /**
+     * Sets the exponential temporal filter.
+     * @param alpha The weight of the newest frame, from 0 to 1. 1 disables the filter.
+     * @param threshold The change, in depth units, above which a pixel is taken as moving and its average restarts. 1000 by default, 10 cm in 100 um units.
+     */
+    public synchronized void setTemporal(double alpha, int threshold)
+    {
+        this.alpha = (float)Math.max(0, Math.min(alpha, 1));
+        this.threshold = Math.max(0, threshold);
+    }
+
+    /**
+     * Sets for how long a hole keeps the last valid value of its pixel.
+     * @param frames The number of frames, up to 255, or 0 to leave holes empty.
+     */
+    public synchronized void setHoleFilling(int frames)
+    {
+        holeFrames = Math.max(0, Math.min(frames, 255));
+    }
+
+    /**
+     * Sets the spatial median.
+     * @param size 3 or 5 for a window of that size, or 0 to disable it.
+     */
+    public synchronized void setMedian(int size)
+    {
+        if(size != 0 && size != 3 && size != 5)
+            throw new IllegalArgumentException("The median must be 3, 5 or 0: " + size);
+        median = size;
+    }
+
+    /**
+     * Forgets the history, so the next frame is taken as it is.
+     */
+    public synchronized void reset()
+    {
+        Arrays.fill(history, 0);
+        Arrays.fill(age, (byte)0);
+    }
+
+    /**
+     * Gets the time of the temporal stage.
+     * @return The histogram of the stage times, in nanoseconds.
+     */
+    public FrameStats getTemporalTimes()
+    {
+        return temporalTimes;
+    }
+
+    /**
+     * Gets the time of the median stage.
+     * @return The histogram of the stage times, in nanoseconds. Empty while the median is disabled.
+     */
+    public FrameStats getMedianTimes()
+    {
+        return medianTimes;
+    }
+
+    /**
+     * Gets the time of the whole filter, including reading and writing the Mat.
+     * @return The histogram of the filter times, in nanoseconds.
+     */
+    public FrameStats getTimes()
+    {
+        return times;
+    }
+
+    /**
+     * Filters a depth frame in place.
+     * @param depth A CV_16UC1 Mat, overwritten with the result.
+     */
+    public synchronized void filter(Mat depth)
+    {
+        if(depth.type() != CvType.CV_16UC1)
+            throw new IllegalArgumentException("Only CV_16UC1 depth can be filtered: " + CvType.typeToString(depth.type()));
+        int rows = depth.rows();
+        int cols = depth.cols();
+        if(rows == 0 || cols == 0)
+            return;
+        long start = System.nanoTime();
+        if(cols != width || rows != height)
+            allocate(cols, rows);
+
+        depth.get(0, 0, input);
+        int bands = Math.max(1, Math.min(MAX_BANDS, rows / MIN_BAND_ROWS));
+        long stage = System.nanoTime();
+        IntStream.range(0, bands).parallel().forEach(band -> temporal(band, bands));
+        long end = System.nanoTime();
+        temporalTimes.record(end - stage);
+
+        short[] result = temporal;
+        if(median > 0)
+        {
+            if(windows.length != bands)
+                windows = new int[bands][25];
+            stage = end;
+            IntStream.range(0, bands).parallel().forEach(band -> median(band, bands));
+            end = System.nanoTime();
+            medianTimes.record(end - stage);
+            result = output;
+        }
+        depth.put(0, 0, result);
+        times.record(System.nanoTime() - start);
+    }
+
+    private void allocate(int cols, int rows)
+    {
+        int n = cols * rows;
+        input = new short[n];
+        temporal = new short[n];
+        output = new short[n];
+        history = new float[n];
+        age = new byte[n];
+        width = cols;
+        height = rows;
+    }
+
+    private void temporal(int band, int bands)
+    {
+        int from = height * band / bands * width;
+        int to = height * (band + 1) / bands * width;
+        short[] in = input;
+        short[] out = temporal;
+        float[] h = history;
+        byte[] frames = age;
+        float a = alpha;
+        int limit = threshold;
+        int fill = holeFrames;
+
+        for(int i = from; i < to; i++)
+        {
+            int d = in[i] & 0xFFFF;
+            float previous = h[i];
+            if(d == 0)
+            {
+                int held = frames[i] & 0xFF;
+                if(previous > 0 && held < fill)
+                {
+                    frames[i] = (byte)(held + 1);
+                    out[i] = (short)(int)(previous + 0.5f);
+                }
+                else
+                {
+                    h[i] = 0;
+                    out[i] = 0;
+                }
+                continue;
+            }
+            frames[i] = 0;
+            float value = previous == 0 || Math.abs(d - previous) > limit ? d : previous + a * (d - previous);
+            h[i] = value;
+            out[i] = (short)(int)(value + 0.5f);
+        }
+    }
+
+    private void median(int band, int bands)
+    {
+        int top = height * band / bands;
+        int bottom = height * (band + 1) / bands;
+        int radius = median / 2;
+        short[] in = temporal;
+        short[] out = output;
+        int[] window = windows[band];
+
+        for(int y = top; y < bottom; y++)
+        {
+            int y0 = Math.max(0, y - radius), y1 = Math.min(height - 1, y + radius);
+            for(int x = 0; x < width; x++)
+            {
+                int i = y * width + x;
+                if(in[i] == 0)
+                {
+                    out[i] = 0;
+                    continue;
+                }
+                int x0 = Math.max(0, x - radius), x1 = Math.min(width - 1, x + radius);
+                int n = 0;
+                for(int wy = y0; wy <= y1; wy++)
+                    for(int wx = x0, p = wy * width + x0; wx <= x1; wx++, p++)
+                    {
+                        int v = in[p] & 0xFFFF;
+                        if(v == 0)
+                            continue;
+                        int k = n++;
+                        while(k > 0 && window[k - 1] > v)
+                        {
+                            window[k] = window[k - 1];
+                            k--;
+                        }
+                        window[k] = v;
+                    }
+                out[i] = (short)window[n / 2];
+            }
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package sensor3D;
+
+import java.util.Arrays;
+
+/**
+ * The rigid transform from the coordinates of one camera to another, such as from the depth camera to the color camera of a sensor.
+ * A point p of the first camera is R p + t in the second. Coordinates are in meters. Instances are immutable.
+ * @author Ricardo
+ */
+public final class Extrinsics
+{
+    private final double[] rotation;
+    private final double[] translation;
+
+    /**
+     * Creates a transform.
+     * @param rotation The 3x3 rotation matrix, in row order.
+     * @param translation The translation x, y and z, in meters.
+     */
+    public Extrinsics(double[] rotation, double[] translation)
+    {
+        if(rotation.length != 9 || translation.length != 3)
+            throw new IllegalArgumentException("Extrinsics need a 3x3 rotation and a translation of 3");
+        this.rotation = rotation.clone();
+        this.translation = translation.clone();
+    }
+
+    /**
+     * Gets the transform of two cameras at the same place, such as a device that registers in hardware.
+     * @return The identity.
+     */
+    public static Extrinsics identity()
+    {
+        return translation(0, 0, 0);
+    }
+
+    /**
+     * Gets the transform of two parallel cameras, such as the nominal layout of a sensor.
+     * @param x The offset along x, in meters.
+     * @param y The offset along y, in meters.
+     * @param z The offset along z, in meters.
+     * @return The transform without rotation.
+     */
+    public static Extrinsics translation(double x, double y, double z)
+    {
+        return new Extrinsics(new double[]{1, 0, 0, 0, 1, 0, 0, 0, 1}, new double[]{x, y, z});
+    }
+
+    /**
+     * Gets the rotation.
+     * @return A copy of the 3x3 matrix, in row order.
+     */
+    public double[] getRotation()
+    {
+        return rotation.clone();
+    }
+
+    /**
+     * Gets the translation.
+     * @return A copy of x, y and z, in meters.
+     */
+    public double[] getTranslation()
+    {
+        return translation.clone();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "R=" + Arrays.toString(rotation) + " t=" + Arrays.toString(translation);
+    }
+}
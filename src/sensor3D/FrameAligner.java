@@ -0,0 +1,230 @@
+package sensor3D;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Groups frames of different streams into FrameSets by device timestamp.
+ * A set is delivered as soon as its last frame arrives, so the latency is at most the frame interval of the slowest stream.
+ * Frames that cannot be matched within the tolerance, or that waited longer than the maximum wait, are released and counted as unmatched.
+ * @author Ricardo
+ */
+public final class FrameAligner
+{
+    private static final int MAX_PENDING = 2;
+
+    private final int modes;
+    private final int[] streams;
+    private final long tolerance;
+    private final long maxWait;
+    private final Consumer<FrameSet> listener;
+
+    private final List<ArrayDeque<Pending>> pending = new ArrayList<>(3);
+    private final long[] unmatched = new long[3];
+    private final long[] dropped = new long[3];
+    private long matched;
+    private boolean closed;
+
+    /**
+     * Creates an aligner.
+     * @param modes The streams to align, as Sensor3D.RGB, Sensor3D.DEPTH and Sensor3D.IR flags. At least two.
+     * @param tolerance The maximum difference between the timestamps of a set, in microseconds.
+     * @param maxWait The maximum time a frame waits for its partners, in microseconds.
+     * @param listener Receives each set. The set is released after the listener returns.
+     */
+    public FrameAligner(int modes, long tolerance, long maxWait, Consumer<FrameSet> listener)
+    {
+        this.modes = modes & (Sensor3D.RGB | Sensor3D.DEPTH | Sensor3D.IR);
+        this.tolerance = tolerance;
+        this.maxWait = maxWait;
+        this.listener = listener;
+
+        List<Integer> aux = new ArrayList<>();
+        for(int mode : new int[]{Sensor3D.RGB, Sensor3D.DEPTH, Sensor3D.IR})
+        {
+            pending.add(new ArrayDeque<>());
+            if((this.modes&mode) == mode)
+                aux.add(FrameSet.index(mode));
+        }
+        if(aux.size() < 2)
+            throw new IllegalArgumentException("Alignment needs at least two streams: " + modes);
+        streams = new int[aux.size()];
+        for(int i = 0; i < streams.length; i++)
+            streams[i] = aux.get(i);
+    }
+
+    /**
+     * Gets the streams that are aligned.
+     * @return The Sensor3D flags of the aligned streams.
+     */
+    public int getModes()
+    {
+        return modes;
+    }
+
+    /**
+     * Adds a newly published frame. The frame is acquired by the aligner, so the caller keeps its own reference.
+     * Streams that are not aligned are ignored, and so are frames offered after the aligner was closed.
+     * @param mode Sensor3D.RGB, Sensor3D.DEPTH or Sensor3D.IR.
+     * @param frame The published frame.
+     */
+    public void offer(int mode, SensorFrame frame)
+    {
+        if((modes&mode) != mode || !frame.pin())
+            return;
+
+        List<FrameSet> ready = null;
+        synchronized(this)
+        {
+            if(closed)
+            {
+                frame.release();
+                return;
+            }
+            long now = System.nanoTime();
+            int index = FrameSet.index(mode);
+            ArrayDeque<Pending> queue = pending.get(index);
+            if(queue.size() == MAX_PENDING)
+            {
+                queue.poll().frame.release();
+                dropped[index]++;
+            }
+            queue.add(new Pending(frame, now));
+
+            expire(now);
+            FrameSet set;
+            while((set = match()) != null)
+            {
+                if(ready == null)
+                    ready = new ArrayList<>(1);
+                ready.add(set);
+            }
+        }
+
+        if(ready != null)
+            for(FrameSet set : ready)
+                try
+                {
+                    listener.accept(set);
+                }
+                finally
+                {
+                    set.release();
+                }
+    }
+
+    private void expire(long now)
+    {
+        for(int index : streams)
+        {
+            ArrayDeque<Pending> queue = pending.get(index);
+            while(!queue.isEmpty() && (now - queue.peek().arrival) / 1000 > maxWait)
+            {
+                queue.poll().frame.release();
+                unmatched[index]++;
+            }
+        }
+    }
+
+    private FrameSet match()
+    {
+        while(true)
+        {
+            long min = Long.MAX_VALUE;
+            long max = Long.MIN_VALUE;
+            int oldest = -1;
+            for(int index : streams)
+            {
+                Pending head = pending.get(index).peek();
+                if(head == null)
+                    return null;
+                long t = head.frame.getTimestamp();
+                if(t < min)
+                {
+                    min = t;
+                    oldest = index;
+                }
+                if(t > max)
+                    max = t;
+            }
+
+            if(max - min <= tolerance)
+            {
+                FrameSet set = new FrameSet();
+                for(int index : streams)
+                    set.set(index, pending.get(index).poll().frame);
+                set.setTimes(min, max - min);
+                matched++;
+                return set;
+            }
+
+            pending.get(oldest).poll().frame.release();
+            unmatched[oldest]++;
+        }
+    }
+
+    /**
+     * Gets the number of sets delivered.
+     * @return The number of matched sets.
+     */
+    public synchronized long getMatched()
+    {
+        return matched;
+    }
+
+    /**
+     * Gets the number of frames of a stream released without a match, because no partner was close enough in time or arrived in time.
+     * @param mode Sensor3D.RGB, Sensor3D.DEPTH or Sensor3D.IR.
+     * @return The number of unmatched frames.
+     */
+    public synchronized long getUnmatched(int mode)
+    {
+        return unmatched[FrameSet.index(mode)];
+    }
+
+    /**
+     * Gets the number of frames of a stream released because newer frames of the same stream were waiting.
+     * @param mode Sensor3D.RGB, Sensor3D.DEPTH or Sensor3D.IR.
+     * @return The number of dropped frames.
+     */
+    public synchronized long getDropped(int mode)
+    {
+        return dropped[FrameSet.index(mode)];
+    }
+
+    /**
+     * Releases every frame waiting for a match.
+     */
+    public synchronized void clear()
+    {
+        for(int index : streams)
+        {
+            ArrayDeque<Pending> queue = pending.get(index);
+            while(!queue.isEmpty())
+                queue.poll().frame.release();
+        }
+    }
+
+    /**
+     * Releases every frame waiting for a match and stops taking new ones, so an offer racing with the close cannot leave a frame pinned.
+     */
+    public synchronized void close()
+    {
+        closed = true;
+        clear();
+    }
+
+    private static final class Pending
+    {
+        private final SensorFrame frame;
+        private final long arrival;
+
+        private Pending(SensorFrame frame, long arrival)
+        {
+            this.frame = frame;
+            this.arrival = arrival;
+        }
+    }
+}
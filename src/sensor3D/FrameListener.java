@@ -0,0 +1,16 @@
+package sensor3D;
+
+/**
+ * Receives the frames a FrameSource publishes.
+ * @author Ricardo
+ */
+public interface FrameListener
+{
+    /**
+     * Called on the thread of the source for each published frame.
+     * The frame stays valid during the call. Acquire it again through the ring to keep it longer.
+     * @param source The source that published the frame.
+     * @param frame The published frame.
+     */
+    void onFrame(FrameSource source, SensorFrame frame);
+}
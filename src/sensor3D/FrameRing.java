@@ -0,0 +1,238 @@
+package sensor3D;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.opencv.core.Mat;
+
+/**
+ * Ring of preallocated frames of one stream.
+ * The producer claims a free slot, writes it and publishes it, without locks. Consumers acquire the latest or the next frame without copying and without blocking the producer.
+ * A slot is never overwritten while a consumer holds it or while it is the latest frame. If every slot is held the new frame is dropped.
+ * @author Ricardo
+ */
+public final class FrameRing
+{
+    private final SensorFrame[] slots;
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicInteger waiters = new AtomicInteger();
+    private final Object signal = new Object();
+    private volatile SensorFrame latest;
+    private int next;
+
+    /**
+     * Creates a ring with preallocated Mats.
+     * @param size The number of slots. At least 2, one more than the frames consumers hold at the same time.
+     * @param rows The height of the frames.
+     * @param cols The width of the frames.
+     * @param type The OpenCV type of the frames.
+     */
+    public FrameRing(int size, int rows, int cols, int type)
+    {
+        if(size < 2)
+            throw new IllegalArgumentException("A frame ring needs at least 2 slots: " + size);
+        slots = new SensorFrame[size];
+        for(int i = 0; i < size; i++)
+            slots[i] = new SensorFrame(rows, cols, type);
+    }
+
+    /**
+     * Gets the number of slots.
+     * @return The size of the ring.
+     */
+    public int size()
+    {
+        return slots.length;
+    }
+
+//<editor-fold defaultstate="collapsed" desc="Producer">
+    /**
+     * Takes a slot to write the next frame.
+     * @return A slot owned by the caller until it is published or cancelled, or null if every slot is held and the frame must be dropped.
+     */
+    public SensorFrame claim()
+    {
+        for(int i = 0; i < slots.length; i++)
+        {
+            int index = next;
+            next = (index + 1) % slots.length;
+            SensorFrame slot = slots[index];
+            if(slot != latest && slot.state.compareAndSet(SensorFrame.FREE, SensorFrame.WRITING))
+            {
+                slot.sequence = -1;
+                return slot;
+            }
+        }
+        dropped.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Makes a written slot available to consumers as the latest frame.
+     * @param slot The slot returned by claim.
+     * @param timestamp The device timestamp of the frame.
+     */
+    public void publish(SensorFrame slot, long timestamp)
+    {
+        slot.timestamp = timestamp;
+        slot.arrival = System.nanoTime();
+        slot.sequence = sequence.getAndIncrement();
+        slot.state.set(SensorFrame.FREE);
+        latest = slot;
+        if(waiters.get() > 0)
+            synchronized(signal)
+            {
+                signal.notifyAll();
+            }
+    }
+
+    /**
+     * Gives back a claimed slot without publishing it.
+     * @param slot The slot returned by claim.
+     */
+    public void cancel(SensorFrame slot)
+    {
+        slot.sequence = -1;
+        slot.state.set(SensorFrame.FREE);
+    }
+//</editor-fold>
+
+//<editor-fold defaultstate="collapsed" desc="Consumer">
+    /**
+     * Acquires the most recent frame. It must be released after use.
+     * @return The latest frame, or null if nothing was published yet.
+     */
+    public SensorFrame acquireLatest()
+    {
+        while(true)
+        {
+            SensorFrame slot = latest;
+            if(slot == null)
+                return null;
+            if(slot.pin())
+            {
+                if(slot.sequence >= 0)
+                    return slot;
+                slot.release();
+            }
+        }
+    }
+
+    /**
+     * Acquires the oldest frame still in the ring that is newer than the given sequence number. It must be released after use.
+     * @param sequence The sequence number of the last frame the caller has seen, or -1 to get the oldest frame.
+     * @return The next frame, or null if no newer frame was published yet.
+     */
+    public SensorFrame acquireNext(long sequence)
+    {
+        while(true)
+        {
+            SensorFrame best = null;
+            long bestSequence = Long.MAX_VALUE;
+            for(SensorFrame slot : slots)
+            {
+                long s = slot.sequence;
+                if(s > sequence && s < bestSequence)
+                {
+                    best = slot;
+                    bestSequence = s;
+                }
+            }
+            if(best == null)
+                return null;
+            if(best.pin())
+            {
+                if(best.sequence > sequence)
+                    return best;
+                best.release();
+            }
+        }
+    }
+
+    /**
+     * Acquires the oldest frame still in the ring that is newer than the given sequence number, waiting for it to be published if needed. It must be released after use.
+     * The producer only takes a lock to wake consumers while some consumer is waiting.
+     * @param sequence The sequence number of the last frame the caller has seen, or -1 to get the oldest frame.
+     * @param timeout The maximum time to wait, in milliseconds.
+     * @return The next frame, or null if none was published in time.
+     * @throws InterruptedException If the thread is interrupted while waiting.
+     */
+    public SensorFrame awaitNext(long sequence, long timeout) throws InterruptedException
+    {
+        SensorFrame frame = acquireNext(sequence);
+        if(frame != null)
+            return frame;
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        waiters.incrementAndGet();
+        try
+        {
+            while(true)
+            {
+                synchronized(signal)
+                {
+                    frame = acquireNext(sequence);
+                    if(frame != null)
+                        return frame;
+                    long remaining = deadline - System.nanoTime();
+                    if(remaining <= 0)
+                        return null;
+                    TimeUnit.NANOSECONDS.timedWait(signal, remaining);
+                }
+            }
+        }
+        finally
+        {
+            waiters.decrementAndGet();
+        }
+    }
+
+    /**
+     * Gets the most recent frame without acquiring it. Its content may be overwritten once newer frames are published.
+     * @return The latest frame, or null if nothing was published yet.
+     */
+    public SensorFrame getLatest()
+    {
+        return latest;
+    }
+
+    /**
+     * Gets the Mat of the most recent frame without acquiring it. Its content may be overwritten once newer frames are published.
+     * @return The latest Mat, or null if nothing was published yet.
+     */
+    public Mat getLatestMat()
+    {
+        SensorFrame slot = latest;
+        return slot == null ? null : slot.getMat();
+    }
+//</editor-fold>
+
+    /**
+     * Gets the sequence number the next published frame will have.
+     * @return The number of frames published so far.
+     */
+    public long getPublished()
+    {
+        return sequence.get();
+    }
+
+    /**
+     * Gets the number of frames dropped because every slot was held.
+     * @return The number of dropped frames.
+     */
+    public long getDropped()
+    {
+        return dropped.get();
+    }
+
+    /**
+     * Releases the Mats of the ring. No frame may be used after this.
+     */
+    public void dispose()
+    {
+        latest = null;
+        for(SensorFrame slot : slots)
+            slot.dispose();
+    }
+}
@@ -0,0 +1,129 @@
+package sensor3D;
+
+import org.opencv.core.Mat;
+
+/**
+ * Frames of different streams of one sensor captured at the same time, grouped by a FrameAligner.
+ * The frames are held in their rings until the set is released.
+ * @author Ricardo
+ */
+public final class FrameSet implements AutoCloseable
+{
+    private final SensorFrame[] frames = new SensorFrame[3];
+    private long timestamp;
+    private long spread;
+
+    FrameSet()
+    {
+    }
+
+    static int index(int mode)
+    {
+        switch(mode)
+        {
+            case Sensor3D.RGB: return 0;
+            case Sensor3D.DEPTH: return 1;
+            case Sensor3D.IR: return 2;
+            default: throw new IllegalArgumentException("Not a single stream: " + mode);
+        }
+    }
+
+    void set(int index, SensorFrame frame)
+    {
+        frames[index] = frame;
+    }
+
+    void setTimes(long timestamp, long spread)
+    {
+        this.timestamp = timestamp;
+        this.spread = spread;
+    }
+
+    /**
+     * Gets the frame of one stream.
+     * @param mode Sensor3D.RGB, Sensor3D.DEPTH or Sensor3D.IR.
+     * @return The frame, or null if the stream is not part of the set.
+     */
+    public SensorFrame get(int mode)
+    {
+        return frames[index(mode)];
+    }
+
+    /**
+     * Gets the image of one stream.
+     * @param mode Sensor3D.RGB, Sensor3D.DEPTH or Sensor3D.IR.
+     * @return The Mat of the frame, or null if the stream is not part of the set.
+     */
+    public Mat getMat(int mode)
+    {
+        SensorFrame frame = get(mode);
+        return frame == null ? null : frame.getMat();
+    }
+
+    /**
+     * Gets the RGB image of the set.
+     * @return The BGR Mat, or null if RGB is not aligned.
+     */
+    public Mat getRGB()
+    {
+        return getMat(Sensor3D.RGB);
+    }
+
+    /**
+     * Gets the depth image of the set.
+     * @return The depth Mat, or null if depth is not aligned.
+     */
+    public Mat getDepth()
+    {
+        return getMat(Sensor3D.DEPTH);
+    }
+
+    /**
+     * Gets the IR image of the set.
+     * @return The IR Mat, or null if IR is not aligned.
+     */
+    public Mat getIR()
+    {
+        return getMat(Sensor3D.IR);
+    }
+
+    /**
+     * Gets the device timestamp of the oldest frame of the set.
+     * @return The timestamp in microseconds.
+     */
+    public long getTimestamp()
+    {
+        return timestamp;
+    }
+
+    /**
+     * Gets the difference between the newest and the oldest timestamp of the set.
+     * @return The spread in microseconds.
+     */
+    public long getSpread()
+    {
+        return spread;
+    }
+
+    /**
+     * Gives every frame of the set back to its ring.
+     */
+    public void release()
+    {
+        for(int i = 0; i < frames.length; i++)
+            if(frames[i] != null)
+            {
+                frames[i].release();
+                frames[i] = null;
+            }
+    }
+
+    /**
+     * Same as release, to be used with try-with-resources.
+     */
+    @Override
+    public void close()
+    {
+        release();
+    }
+}
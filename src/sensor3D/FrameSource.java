@@ -0,0 +1,106 @@
+package sensor3D;
+
+import java.util.function.Consumer;
+import org.opencv.core.Mat;
+
+/**
+ * A stream of frames, such as one camera of a sensor, a recording or a synthetic generator.
+ * Frames are published into a FrameRing. They can be pushed to a listener as they arrive or pulled by sequence number.
+ * @author Ricardo
+ */
+public interface FrameSource
+{
+    /**
+     * Gets the width of the frames.
+     * @return The width in pixels.
+     */
+    int getWidth();
+
+    /**
+     * Gets the height of the frames.
+     * @return The height in pixels.
+     */
+    int getHeight();
+
+    /**
+     * Gets the nominal frame rate.
+     * @return The frames per second, or 0 if unknown.
+     */
+    int getFrameRate();
+
+    /**
+     * Gets the format of the frames.
+     * @return The CvType of the frames.
+     */
+    int getType();
+
+    /**
+     * Sets the size of the frames. Only allowed while stopped. Sources with a fixed size ignore it.
+     * @param width The width in pixels.
+     * @param height The height in pixels.
+     */
+    void setSize(int width, int height);
+
+    /**
+     * Sets the nominal frame rate. Only allowed while stopped. Sources with a fixed rate ignore it.
+     * @param fps The frames per second.
+     */
+    void setFrameRate(int fps);
+
+    /**
+     * Starts publishing frames.
+     */
+    void start();
+
+    /**
+     * Stops publishing frames. Frames already in the ring stay valid.
+     */
+    void stop();
+
+    /**
+     * Checks if the source is publishing frames.
+     * @return True between start and stop.
+     */
+    boolean isRunning();
+
+    /**
+     * Gets the ring the frames are published into.
+     * @return The ring of the current size.
+     */
+    FrameRing getFrames();
+
+    /**
+     * Pulls the next frame, waiting for it if needed. It must be released after use.
+     * @param sequence The sequence number of the last frame the caller has seen, or -1 to get the oldest frame.
+     * @param timeout The maximum time to wait, in milliseconds.
+     * @return The next frame, or null if none arrived in time.
+     * @throws InterruptedException If the thread is interrupted while waiting.
+     */
+    SensorFrame next(long sequence, long timeout) throws InterruptedException;
+
+    /**
+     * Sets the listener frames are pushed to.
+     * @param listener The listener, or null to only pull.
+     */
+    void setListener(FrameListener listener);
+
+    /**
+     * Sets work done in place on each frame after it is written and before it is published, such as a DepthFilter, so consumers only ever see processed frames.
+     * It runs on the thread of the source.
+     * @param processor The work, or null to publish frames as they are written.
+     * @throws UnsupportedOperationException If the source does not support it. Sensor3D then filters depth when frames are delivered instead.
+     */
+    default void setProcessor(Consumer<Mat> processor)
+    {
+        throw new UnsupportedOperationException("This source cannot process its frames");
+    }
+
+    /**
+     * Gets the pinhole model of the camera at the current size.
+     * @return The intrinsics, or null if they are not known.
+     */
+    default Intrinsics getIntrinsics()
+    {
+        return null;
+    }
+}
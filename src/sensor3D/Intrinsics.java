@@ -0,0 +1,197 @@
+package sensor3D;
+
+/**
+ * The pinhole model of a camera: focal lengths and principal point in pixels, for a given resolution, and optionally the radial and tangential lens distortion.
+ * Pixel (u, v) looks along the ray ((u - cx) / fx, (v - cy) / fy, 1) once undistorted, with x to the right, y down and z forward.
+ * Instances are immutable.
+ * @author Ricardo
+ */
+public final class Intrinsics
+{
+    private final int width;
+    private final int height;
+    private final double fx;
+    private final double fy;
+    private final double cx;
+    private final double cy;
+    private final double[] distortion;
+
+    /**
+     * Creates the model of a camera without distortion.
+     * @param width The width of the images in pixels.
+     * @param height The height of the images in pixels.
+     * @param fx The horizontal focal length in pixels.
+     * @param fy The vertical focal length in pixels.
+     * @param cx The column of the principal point.
+     * @param cy The row of the principal point.
+     */
+    public Intrinsics(int width, int height, double fx, double fy, double cx, double cy)
+    {
+        this(width, height, fx, fy, cx, cy, 0, 0, 0, 0, 0);
+    }
+
+    /**
+     * Creates the model of a camera with the Brown-Conrady distortion used by OpenCV.
+     * @param width The width of the images in pixels.
+     * @param height The height of the images in pixels.
+     * @param fx The horizontal focal length in pixels.
+     * @param fy The vertical focal length in pixels.
+     * @param cx The column of the principal point.
+     * @param cy The row of the principal point.
+     * @param k1 The first radial coefficient.
+     * @param k2 The second radial coefficient.
+     * @param p1 The first tangential coefficient.
+     * @param p2 The second tangential coefficient.
+     * @param k3 The third radial coefficient.
+     */
+    public Intrinsics(int width, int height, double fx, double fy, double cx, double cy, double k1, double k2, double p1, double p2, double k3)
+    {
+        if(width <= 0 || height <= 0 || fx <= 0 || fy <= 0)
+            throw new IllegalArgumentException("Invalid intrinsics: " + width + "x" + height + " f=" + fx + "," + fy);
+        this.width = width;
+        this.height = height;
+        this.fx = fx;
+        this.fy = fy;
+        this.cx = cx;
+        this.cy = cy;
+        this.distortion = new double[]{k1, k2, p1, p2, k3};
+    }
+
+    /**
+     * Creates the model of a camera without distortion from its field of view, with the principal point at the center of the image.
+     * @param width The width of the images in pixels.
+     * @param height The height of the images in pixels.
+     * @param horizontal The horizontal field of view in radians.
+     * @param vertical The vertical field of view in radians.
+     * @return The intrinsics.
+     */
+    public static Intrinsics fromFieldOfView(int width, int height, double horizontal, double vertical)
+    {
+        return new Intrinsics(width, height, width / (2 * Math.tan(horizontal / 2)), height / (2 * Math.tan(vertical / 2)), (width - 1) / 2.0, (height - 1) / 2.0);
+    }
+
+    /**
+     * Gets the model of the same camera at another resolution of the same aspect, such as a binned mode.
+     * @param width The new width in pixels.
+     * @param height The new height in pixels.
+     * @return The scaled intrinsics, or this if the resolution is the same.
+     */
+    public Intrinsics scale(int width, int height)
+    {
+        if(width == this.width && height == this.height)
+            return this;
+        double sx = (double)width / this.width;
+        double sy = (double)height / this.height;
+        return new Intrinsics(width, height, fx * sx, fy * sy, (cx + 0.5) * sx - 0.5, (cy + 0.5) * sy - 0.5,
+                distortion[0], distortion[1], distortion[2], distortion[3], distortion[4]);
+    }
+
+    /**
+     * Computes the normalized ray of a pixel, removing the lens distortion.
+     * @param u The column of the pixel.
+     * @param v The row of the pixel.
+     * @param ray Receives x and y of the ray at z = 1.
+     */
+    public void ray(double u, double v, double[] ray)
+    {
+        double x = (u - cx) / fx;
+        double y = (v - cy) / fy;
+        if(hasDistortion())
+        {
+            double x0 = x, y0 = y;
+            double k1 = distortion[0], k2 = distortion[1], p1 = distortion[2], p2 = distortion[3], k3 = distortion[4];
+            for(int i = 0; i < 5; i++)
+            {
+                double r2 = x * x + y * y;
+                double radial = 1 / (1 + ((k3 * r2 + k2) * r2 + k1) * r2);
+                double dx = 2 * p1 * x * y + p2 * (r2 + 2 * x * x);
+                double dy = p1 * (r2 + 2 * y * y) + 2 * p2 * x * y;
+                x = (x0 - dx) * radial;
+                y = (y0 - dy) * radial;
+            }
+        }
+        ray[0] = x;
+        ray[1] = y;
+    }
+
+    /**
+     * Checks if the model has lens distortion.
+     * @return True if any distortion coefficient is not zero.
+     */
+    public boolean hasDistortion()
+    {
+        for(double d : distortion)
+            if(d != 0)
+                return true;
+        return false;
+    }
+
+    /**
+     * Gets the width of the images.
+     * @return The width in pixels.
+     */
+    public int getWidth()
+    {
+        return width;
+    }
+
+    /**
+     * Gets the height of the images.
+     * @return The height in pixels.
+     */
+    public int getHeight()
+    {
+        return height;
+    }
+
+    /**
+     * Gets the horizontal focal length.
+     * @return The focal length in pixels.
+     */
+    public double getFx()
+    {
+        return fx;
+    }
+
+    /**
+     * Gets the vertical focal length.
+     * @return The focal length in pixels.
+     */
+    public double getFy()
+    {
+        return fy;
+    }
+
+    /**
+     * Gets the column of the principal point.
+     * @return The column in pixels.
+     */
+    public double getCx()
+    {
+        return cx;
+    }
+
+    /**
+     * Gets the row of the principal point.
+     * @return The row in pixels.
+     */
+    public double getCy()
+    {
+        return cy;
+    }
+
+    /**
+     * Gets the distortion coefficients.
+     * @return A copy of k1, k2, p1, p2 and k3.
+     */
+    public double[] getDistortion()
+    {
+        return distortion.clone();
+    }
+
+    @Override
+    public String toString()
+    {
+        return width + "x" + height + " f=(" + fx + ", " + fy + ") c=(" + cx + ", " + cy + ")";
+    }
+}
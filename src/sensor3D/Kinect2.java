@@ -6,6 +6,7 @@
 
 package sensor3D;
 
+import metrics.Metrics;
 import org.opencv.core.CvType;
 import org.opencv.core.Mat;
 import org.opencv.core.Size;
@@ -16,9 +17,25 @@ import org.opencv.core.Size;
  */
 public class Kinect2
 {
-    static
+    /**
+     * The device side of a Kinect2. It grabs the frames of both cameras, writing them into the Mats it is given.
+     * The native backend uses the Kinect SDK through Kinect2.dll. Kinect2Stub generates frames without a device.
+     */
+    public interface Backend
     {
-        System.loadLibrary("Kinect2");
+        /**
+         * Waits for the next frames of the device and writes them.
+         * @param rgb The 1920x1080 CV_8UC4 Mat to write the color frame into, or null if it is not needed.
+         * @param depth The 512x424 CV_16UC1 Mat to write the depth frame into, in millimeters, or null if it is not needed.
+         * @return The timestamp of the frames in microseconds, or -1 if no frame arrived and nothing was written.
+         * @throws InterruptedException If the thread is interrupted while waiting.
+         */
+        long grab(Mat rgb, Mat depth) throws InterruptedException;
+        
+        /**
+         * Closes the device.
+         */
+        void close();
     }
     
     public static final int rgbWidth = 1920;
@@ -31,22 +48,291 @@ public class Kinect2
     public Mat rgb = new Mat(new Size(rgbWidth, rgbHeight), CvType.CV_8UC4);
     public Mat depth = new Mat(new Size(depthWidth, depthHeight), CvType.CV_16UC1);
     
-    public byte frameRGB[] = new byte[rgbWidth * rgbHeight * 4];
-    private short frameDepth[] = new short[depthWidth * depthHeight];
+    public byte frameRGB[];
+    private short frameDepth[];
+    
+    private final Backend backend;
+    private final Stream rgbSource = new Stream(rgbWidth, rgbHeight, CvType.CV_8UC4, new Intrinsics(rgbWidth, rgbHeight, 1081.37, 1081.37, 959.5, 539.5));
+    private final Stream depthSource = new Stream(depthWidth, depthHeight, CvType.CV_16UC1, new Intrinsics(depthWidth, depthHeight, 365.456, 365.456, 254.878, 205.395));
+    private Thread capture;
     
+    /**
+     * Opens the Kinect through the native backend.
+     */
     public Kinect2()
     {
+        System.loadLibrary("Kinect2");
+        frameRGB = new byte[rgbWidth * rgbHeight * 4];
+        frameDepth = new short[depthWidth * depthHeight];
         init();
+        backend = new Native();
+    }
+    
+    /**
+     * Creates a Kinect2 over any backend, for example a Kinect2Stub where the Kinect SDK is not available.
+     * @param backend The backend, already open.
+     */
+    public Kinect2(Backend backend)
+    {
+        this.backend = backend;
     }
     
+    /**
+     * Grabs the next frames into rgb and depth, blocking the caller.
+     * @throws IllegalStateException If a source is running, as the capture thread is then grabbing the frames.
+     */
     public void run()
     {
-        runKinect();
-        rgb.put(0, 0, frameRGB);
-        depth.put(0, 0, frameDepth);
+        synchronized(this)
+        {
+            if(capture != null)
+                throw new IllegalStateException("Cannot grab frames while the capture thread is running");
+        }
+        try
+        {
+            backend.grab(rgb, depth);
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    /**
+     * Gets the color camera as a FrameSource. Starting it runs the capture on its own thread.
+     * @return The 1920x1080 BGRA source.
+     */
+    public FrameSource getRGBSource()
+    {
+        return rgbSource;
+    }
+    
+    /**
+     * Gets the depth camera as a FrameSource. Starting it runs the capture on its own thread.
+     * @return The 512x424 depth source, in millimeters.
+     */
+    public FrameSource getDepthSource()
+    {
+        return depthSource;
+    }
+    
+    /**
+     * Gets the source of a stream.
+     * @param mode Sensor3D.RGB or Sensor3D.DEPTH.
+     * @return The source, or null if the Kinect does not have the stream.
+     */
+    public FrameSource getSource(int mode)
+    {
+        if((mode&Sensor3D.RGB) == Sensor3D.RGB)
+            return rgbSource;
+        if((mode&Sensor3D.DEPTH) == Sensor3D.DEPTH)
+            return depthSource;
+        return null;
+    }
+    
+    /**
+     * Starts capturing the given streams on the capture thread. Their frames are published into the rings of the sources and passed to readRGB and readDepth.
+     * @param modes Sensor3D.RGB, Sensor3D.DEPTH or both.
+     */
+    public void start(int modes)
+    {
+        if((modes&Sensor3D.RGB) == Sensor3D.RGB)
+            rgbSource.start();
+        if((modes&Sensor3D.DEPTH) == Sensor3D.DEPTH)
+            depthSource.start();
+    }
+    
+    /**
+     * Stops capturing the given streams. The capture thread ends when no stream is left.
+     * @param modes Sensor3D.RGB, Sensor3D.DEPTH or both.
+     */
+    public void stop(int modes)
+    {
+        if((modes&Sensor3D.RGB) == Sensor3D.RGB)
+            rgbSource.stop();
+        if((modes&Sensor3D.DEPTH) == Sensor3D.DEPTH)
+            depthSource.stop();
+    }
+    
+    /**
+     * Stops the capture and closes the backend.
+     */
+    public void shutdown()
+    {
+        stop(Sensor3D.RGB | Sensor3D.DEPTH);
+        backend.close();
+    }
+    
+    public void readRGB(Mat RGBFrame){}
+    public void readDepth(Mat depthFrame){}
+    
+    private synchronized void updateCapture()
+    {
+        boolean running = rgbSource.running || depthSource.running;
+        if(running && capture == null)
+        {
+            capture = new Thread(this::capture, "Kinect2");
+            capture.setDaemon(true);
+            capture.start();
+        }
+        else if(!running && capture != null)
+        {
+            Thread t = capture;
+            capture = null;
+            t.interrupt();
+            if(t == Thread.currentThread())
+                return;
+            boolean interrupted = false;
+            while(t.isAlive())
+            {
+                try
+                {
+                    t.join();
+                }
+                catch(InterruptedException e)
+                {
+                    interrupted = true;
+                }
+            }
+            if(interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+    
+    private void capture()
+    {
+        Thread self = Thread.currentThread();
+        while(!self.isInterrupted())
+        {
+            SensorFrame color = rgbSource.claim();
+            SensorFrame range = depthSource.claim();
+            long timestamp;
+            try
+            {
+                timestamp = backend.grab(color == null ? null : color.getMat(), range == null ? null : range.getMat());
+            }
+            catch(InterruptedException e)
+            {
+                timestamp = -1;
+                self.interrupt();
+            }
+            rgbSource.deliver(color, timestamp);
+            depthSource.deliver(range, timestamp);
+        }
     }
     
     private native void runKinect();
     private native void init();
+    
+    /**
+     * Closes the device of the native backend. Use shutdown to also stop the capture, or with other backends.
+     */
     public native void close();
+    
+    private final class Native implements Backend
+    {
+        @Override
+        public long grab(Mat rgb, Mat depth)
+        {
+            runKinect();
+            long timestamp = System.nanoTime() / 1000;
+            if(rgb != null)
+                rgb.put(0, 0, frameRGB);
+            if(depth != null)
+                depth.put(0, 0, frameDepth);
+            return timestamp;
+        }
+        
+        @Override
+        public void close()
+        {
+            Kinect2.this.close();
+        }
+    }
+    
+    private final class Stream extends AbstractFrameSource
+    {
+        private final Intrinsics intrinsics;
+        private volatile boolean running;
+        
+        private Stream(int width, int height, int type, Intrinsics intrinsics)
+        {
+            super(width, height, 30, type);
+            this.intrinsics = intrinsics;
+        }
+        
+        /**
+         * Gets the typical factory intrinsics of the Kinect 2 cameras. Each device differs slightly from them.
+         * @return The nominal intrinsics.
+         */
+        @Override
+        public Intrinsics getIntrinsics()
+        {
+            return intrinsics;
+        }
+        
+        @Override
+        public void setSize(int width, int height)
+        {
+        }
+        
+        @Override
+        public void setFrameRate(int fps)
+        {
+        }
+        
+        @Override
+        public void start()
+        {
+            running = true;
+            updateCapture();
+        }
+        
+        @Override
+        public void stop()
+        {
+            running = false;
+            updateCapture();
+        }
+        
+        @Override
+        public boolean isRunning()
+        {
+            return running;
+        }
+        
+        /**
+         * Claims a slot for the backend to write into.
+         * @return The slot, or null if the stream is stopped or every slot is held.
+         */
+        @Override
+        protected SensorFrame claim()
+        {
+            return running ? super.claim() : null;
+        }
+        
+        private void deliver(SensorFrame frame, long timestamp)
+        {
+            if(frame == null)
+                return;
+            if(timestamp < 0 || !running)
+            {
+                getFrames().cancel(frame);
+                return;
+            }
+            publish(frame, timestamp);
+            Metrics.setOrigin(frame.getArrival());
+            try
+            {
+                if(this == rgbSource)
+                    readRGB(frame.getMat());
+                else
+                    readDepth(frame.getMat());
+            }
+            finally
+            {
+                Metrics.setOrigin(-1);
+            }
+        }
+    }
 }
@@ -0,0 +1,63 @@
+package sensor3D;
+
+import java.util.concurrent.TimeUnit;
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+
+/**
+ * A Kinect2 backend without a device, to run the capture and delivery of Kinect2 where the Kinect SDK is not available.
+ * Frames come at 30 fps. The color is flat and cycles through the hue, and the depth is a wall at 2 m with a bar at 1 m sweeping across it.
+ * Timestamps count from the first frame, in microseconds.
+ * @author Ricardo
+ */
+public class Kinect2Stub implements Kinect2.Backend
+{
+    private static final long PERIOD = TimeUnit.SECONDS.toNanos(1) / 30;
+    private static final int BAR_WIDTH = 32;
+
+    private long start = -1;
+    private long frames;
+
+    @Override
+    public synchronized long grab(Mat rgb, Mat depth) throws InterruptedException
+    {
+        if(start < 0)
+            start = System.nanoTime();
+        long due = start + frames * PERIOD;
+        long remaining = due - System.nanoTime();
+        if(remaining > 0)
+            TimeUnit.NANOSECONDS.sleep(remaining);
+        else if(Thread.interrupted())
+            throw new InterruptedException();
+
+        if(rgb != null)
+        {
+            double hue = frames % 180 * Math.PI / 90;
+            rgb.setTo(new Scalar(127.5 + 127.5 * Math.cos(hue), 127.5 + 127.5 * Math.cos(hue - 2.0944), 127.5 + 127.5 * Math.cos(hue + 2.0944), 255));
+        }
+        if(depth != null)
+        {
+            depth.setTo(new Scalar(2000));
+            int x = (int)(frames * 4 % (depth.cols() - BAR_WIDTH));
+            Mat bar = depth.colRange(x, x + BAR_WIDTH);
+            bar.setTo(new Scalar(1000));
+            bar.release();
+        }
+        frames++;
+        return (due - start) / 1000;
+    }
+
+    /**
+     * Gets the number of frames generated.
+     * @return The number of frames.
+     */
+    public synchronized long getFrames()
+    {
+        return frames;
+    }
+
+    @Override
+    public void close()
+    {
+    }
+}
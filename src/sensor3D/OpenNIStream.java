@@ -0,0 +1,169 @@
+package sensor3D;
+
+import canvas.NativeMemory;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.imgproc.Imgproc;
+import org.openni.Device;
+import org.openni.PixelFormat;
+import org.openni.SensorType;
+import org.openni.VideoFrameRef;
+import org.openni.VideoMode;
+import org.openni.VideoStream;
+
+/**
+ * One camera of an OpenNI device as a FrameSource.
+ * With events enabled frames are published on the OpenNI thread as they arrive. Otherwise they are read from the driver when pulled.
+ * @author Ricardo
+ */
+public class OpenNIStream extends AbstractFrameSource implements VideoStream.NewFrameListener
+{
+    private final Device device;
+    private final SensorType sensorType;
+    private volatile VideoStream video;
+    private boolean event = true;
+    private volatile double horizontalFov;
+    private volatile double verticalFov;
+
+    /**
+     * Creates a 640x480 stream at 30 fps. Color is delivered as BGR 8UC3, depth in 100 um units and IR as the raw 16UC1 intensity.
+     * @param device The opened device.
+     * @param sensorType SensorType.COLOR, SensorType.DEPTH or SensorType.IR.
+     */
+    public OpenNIStream(Device device, SensorType sensorType)
+    {
+        super(640, 480, 30, sensorType == SensorType.COLOR ? CvType.CV_8UC3 : CvType.CV_16UC1);
+        this.device = device;
+        this.sensorType = sensorType;
+    }
+
+    /**
+     * Gets the sensor this stream reads from.
+     * @return SensorType.COLOR, SensorType.DEPTH or SensorType.IR.
+     */
+    public SensorType getSensorType()
+    {
+        return sensorType;
+    }
+
+    /**
+     * Sets if frames are pushed by OpenNI events or read when pulled. Applies on the next start.
+     * @param evt True to use events.
+     */
+    public void enableEvent(boolean evt)
+    {
+        event = evt;
+    }
+
+    /**
+     * Gets the OpenNI stream while running.
+     * @return The stream, or null if stopped.
+     */
+    public VideoStream getVideoStream()
+    {
+        return video;
+    }
+
+    /**
+     * Gets the pinhole model of the camera from the field of view reported by OpenNI.
+     * @return The intrinsics at the current size, or null if the stream was never started.
+     */
+    @Override
+    public Intrinsics getIntrinsics()
+    {
+        double h = horizontalFov, v = verticalFov;
+        return h > 0 && v > 0 ? Intrinsics.fromFieldOfView(getWidth(), getHeight(), h, v) : null;
+    }
+
+    @Override
+    public synchronized void start()
+    {
+        if(video != null)
+            return;
+        VideoStream v = VideoStream.create(device, sensorType);
+
+        VideoMode mode = new VideoMode();
+        mode.setResolution(getWidth(), getHeight());
+        mode.setFps(getFrameRate());
+        mode.setPixelFormat(sensorType == SensorType.COLOR ? PixelFormat.RGB888 : sensorType == SensorType.DEPTH ? PixelFormat.DEPTH_100_UM : PixelFormat.GRAY16);
+
+        v.setVideoMode(mode);
+        horizontalFov = v.getHorizontalFieldOfView();
+        verticalFov = v.getVerticalFieldOfView();
+        if(event)
+            v.addNewFrameListener(this);
+        v.start();
+        video = v;
+    }
+
+    @Override
+    public synchronized void stop()
+    {
+        VideoStream v = video;
+        if(v == null)
+            return;
+        video = null;
+        if(event)
+            v.removeNewFrameListener(this);
+        v.stop();
+        v.destroy();
+    }
+
+    @Override
+    public boolean isRunning()
+    {
+        return video != null;
+    }
+
+    /**
+     * Reads a frame from the driver first if events are disabled.
+     */
+    @Override
+    public SensorFrame next(long sequence, long timeout) throws InterruptedException
+    {
+        VideoStream v = video;
+        if(!event && v != null)
+            readFrame(v.readFrame(), false);
+        return super.next(sequence, timeout);
+    }
+
+    /**
+     * Acquires the newest frame, reading it from the driver first if events are disabled. It must be released after use.
+     * Pulled frames are not pushed to the listener.
+     * @return The newest frame, or null if there is none yet.
+     */
+    public SensorFrame acquire()
+    {
+        VideoStream v = video;
+        if(!event && v != null)
+            readFrame(v.readFrame(), false);
+        return getFrames().acquireLatest();
+    }
+
+    @Override
+    public void onFrameReady(VideoStream stream)
+    {
+        readFrame(stream.readFrame(), true);
+    }
+
+    private SensorFrame readFrame(VideoFrameRef lastFrame, boolean push)
+    {
+        SensorFrame frame = claim();
+        if(frame != null)
+        {
+            Mat image = frame.getMat();
+            NativeMemory.copy(lastFrame.getData(), lastFrame.getStrideInBytes(), image);
+            if(sensorType == SensorType.COLOR)
+                Imgproc.cvtColor(image, image, Imgproc.COLOR_RGB2BGR);
+            if(push)
+                publish(frame, lastFrame.getTimestamp());
+            else
+            {
+                process(frame);
+                getFrames().publish(frame, lastFrame.getTimestamp());
+            }
+        }
+        lastFrame.release();
+        return frame;
+    }
+}
@@ -0,0 +1,315 @@
+package sensor3D;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+/**
+ * Turns depth images into XYZ points, in meters, with x to the right, y down and z forward.
+ * The ray of every pixel, with the lens distortion removed, is computed once per resolution, so each point costs two multiplications and a scale.
+ * A frame is split in row bands processed in parallel on the common ForkJoin pool, and the points are written into a direct FloatBuffer that is reused between frames.
+ * By default only valid points are written, packed. Organized clouds keep one point per pixel, with NaN for invalid depth.
+ * Points can be pulled with compute, or pushed to a listener by setting the cloud as the FrameListener of a depth source.
+ * Conversions are serialized, so the pushed frames of a source and pulls from another thread can share a generator, but they share the buffer too.
+ * @author Ricardo
+ */
+public class PointCloud implements FrameListener
+{
+    /**
+     * Receives the points of each frame of a depth source.
+     */
+    public interface Listener
+    {
+        /**
+         * Called on the thread of the source after a frame was converted.
+         * @param frame The depth frame.
+         * @param points The points of the frame, x, y and z for each, from position 0 to the limit. The buffer is reused by the next frame.
+         */
+        void onPoints(SensorFrame frame, FloatBuffer points);
+    }
+
+    private static final int MIN_BAND_ROWS = 16;
+    private static final int MAX_BANDS = Runtime.getRuntime().availableProcessors() * 2;
+
+    private final Intrinsics intrinsics;
+    private volatile Listener listener;
+    private float unit = 0.0001f;
+    private int min = 1;
+    private int max = 65535;
+    private boolean organized;
+
+    private int width = -1;
+    private int height = -1;
+    private float[] rayX = new float[0];
+    private float[] rayY = new float[0];
+    private FloatBuffer points;
+    private short[][] in = new short[0][];
+    private float[][] out = new float[0][];
+    private int[] counts = new int[0];
+    private int[] offsets = new int[0];
+    private int count;
+    private long frames;
+    private long time;
+
+    /**
+     * Creates a point cloud generator.
+     * @param intrinsics The camera model. It is scaled to the size of the depth images if they differ.
+     */
+    public PointCloud(Intrinsics intrinsics)
+    {
+        if(intrinsics == null)
+            throw new IllegalArgumentException("The intrinsics of the depth camera are needed");
+        this.intrinsics = intrinsics;
+    }
+
+    /**
+     * Creates a point cloud generator for a depth source.
+     * @param source The depth source.
+     * @return The generator, using the intrinsics of the source.
+     * @throws IllegalArgumentException If the intrinsics of the source are not known.
+     */
+    public static PointCloud of(FrameSource source)
+    {
+        return new PointCloud(source.getIntrinsics());
+    }
+
+    /**
+     * Allocates a buffer that can hold the points of a frame.
+     * @param points The number of points.
+     * @return A direct buffer in the native byte order, for 3 floats per point.
+     */
+    public static FloatBuffer allocate(int points)
+    {
+        return ByteBuffer.allocateDirect(points * 3 * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+    }
+
+    /**
+     * Sets the size of a depth unit.
+     * @param meters The meters per unit, 0.0001 by default for the 100 um depth of OpenNI and SyntheticSource, or 0.001 for millimeters.
+     */
+    public void setDepthUnit(float meters)
+    {
+        unit = meters;
+    }
+
+    /**
+     * Sets the range of valid depth. Zero is always invalid.
+     * @param min The nearest valid depth, in depth units.
+     * @param max The farthest valid depth, in depth units.
+     */
+    public void setRange(int min, int max)
+    {
+        this.min = Math.max(1, min);
+        this.max = Math.min(65535, max);
+    }
+
+    /**
+     * Sets if a point is written for every pixel, NaN where the depth is invalid, instead of only the valid points.
+     * @param organized True for one point per pixel, in row order.
+     */
+    public void setOrganized(boolean organized)
+    {
+        this.organized = organized;
+    }
+
+    /**
+     * Sets the listener that receives the points of each frame pushed to onFrame.
+     * @param listener The listener, or null to only convert.
+     */
+    public void setListener(Listener listener)
+    {
+        this.listener = listener;
+    }
+
+    /**
+     * Gets the camera model given at construction.
+     * @return The intrinsics.
+     */
+    public Intrinsics getIntrinsics()
+    {
+        return intrinsics;
+    }
+
+    /**
+     * Converts a pushed depth frame and passes the points to the listener.
+     * @param source The source of the frame.
+     * @param frame The depth frame.
+     */
+    @Override
+    public void onFrame(FrameSource source, SensorFrame frame)
+    {
+        FloatBuffer result = compute(frame.getMat());
+        Listener l = listener;
+        if(l != null)
+            l.onPoints(frame, result);
+    }
+
+    /**
+     * Converts a depth image into the buffer owned by the generator.
+     * @param depth A CV_16UC1 Mat.
+     * @return The points, from position 0 to the limit. The buffer is overwritten by the next call.
+     */
+    public synchronized FloatBuffer compute(Mat depth)
+    {
+        int capacity = depth.rows() * depth.cols() * 3;
+        if(points == null || points.capacity() < capacity)
+            points = allocate(depth.rows() * depth.cols());
+        points.clear();
+        compute(depth, points);
+        points.flip();
+        return points;
+    }
+
+    /**
+     * Converts a depth image into a buffer, starting at its position. The position is advanced past the points.
+     * @param depth A CV_16UC1 Mat.
+     * @param result The buffer, with room for 3 floats per pixel of the image.
+     * @return The number of points written.
+     */
+    public synchronized int compute(Mat depth, FloatBuffer result)
+    {
+        if(depth.type() != CvType.CV_16UC1)
+            throw new IllegalArgumentException("Only CV_16UC1 depth can be converted: " + CvType.typeToString(depth.type()));
+        int rows = depth.rows();
+        int cols = depth.cols();
+        if(result.remaining() < rows * cols * 3)
+            throw new IllegalArgumentException("The buffer has room for " + result.remaining() / 3 + " points, " + rows * cols + " are needed");
+        if(rows == 0 || cols == 0)
+            return 0;
+        long start = System.nanoTime();
+
+        if(cols != width || rows != height)
+            build(cols, rows);
+        int bands = Math.max(1, Math.min(MAX_BANDS, rows / MIN_BAND_ROWS));
+        allocate(bands, rows, cols);
+
+        IntStream.range(0, bands).parallel().forEach(band -> band(depth, band, bands));
+
+        int base = result.position();
+        int total = 0;
+        for(int band = 0; band < bands; band++)
+        {
+            offsets[band] = total;
+            total += organized ? (rows * (band + 1) / bands - rows * band / bands) * cols : counts[band];
+        }
+        IntStream.range(0, bands).parallel().forEach(band -> {
+            FloatBuffer view = result.duplicate();
+            view.position(base + offsets[band] * 3);
+            view.put(out[band], 0, (organized ? out[band].length / 3 : counts[band]) * 3);
+        });
+        result.position(base + total * 3);
+
+        count = total;
+        frames++;
+        time += System.nanoTime() - start;
+        return total;
+    }
+
+    /**
+     * Gets the number of points of the last frame.
+     * @return The number of points, including the invalid ones of organized clouds.
+     */
+    public int getPoints()
+    {
+        return count;
+    }
+
+    /**
+     * Gets the number of frames converted.
+     * @return The number of frames.
+     */
+    public long getFrames()
+    {
+        return frames;
+    }
+
+    /**
+     * Gets the time spent converting frames.
+     * @return The time in nanoseconds.
+     */
+    public long getTime()
+    {
+        return time;
+    }
+
+    private void build(int cols, int rows)
+    {
+        Intrinsics model = intrinsics.scale(cols, rows);
+        rayX = new float[cols * rows];
+        rayY = new float[cols * rows];
+        double[] ray = new double[2];
+        for(int v = 0, i = 0; v < rows; v++)
+            for(int u = 0; u < cols; u++, i++)
+            {
+                model.ray(u, v, ray);
+                rayX[i] = (float)ray[0];
+                rayY[i] = (float)ray[1];
+            }
+        width = cols;
+        height = rows;
+    }
+
+    private void allocate(int bands, int rows, int cols)
+    {
+        if(in.length != bands)
+        {
+            in = new short[bands][];
+            out = new float[bands][];
+            counts = new int[bands];
+            offsets = new int[bands];
+        }
+        for(int band = 0; band < bands; band++)
+        {
+            int n = (rows * (band + 1) / bands - rows * band / bands) * cols;
+            if(in[band] == null || in[band].length != n)
+            {
+                in[band] = new short[n];
+                out[band] = new float[n * 3];
+            }
+        }
+    }
+
+    private void band(Mat depth, int band, int bands)
+    {
+        int first = depth.rows() * band / bands * depth.cols();
+        short[] pixels = in[band];
+        float[] xyz = out[band];
+        float[] rx = rayX, ry = rayY;
+        float scale = unit;
+        int low = min, high = max;
+        depth.get(depth.rows() * band / bands, 0, pixels);
+
+        int j = 0;
+        if(organized)
+        {
+            Arrays.fill(xyz, Float.NaN);
+            for(int i = 0; i < pixels.length; i++, j += 3)
+            {
+                int d = pixels[i] & 0xFFFF;
+                if(d < low || d > high)
+                    continue;
+                float z = d * scale;
+                xyz[j] = rx[first + i] * z;
+                xyz[j + 1] = ry[first + i] * z;
+                xyz[j + 2] = z;
+            }
+        }
+        else
+            for(int i = 0; i < pixels.length; i++)
+            {
+                int d = pixels[i] & 0xFFFF;
+                if(d < low || d > high)
+                    continue;
+                float z = d * scale;
+                xyz[j] = rx[first + i] * z;
+                xyz[j + 1] = ry[first + i] * z;
+                xyz[j + 2] = z;
+                j += 3;
+            }
+        counts[band] = j / 3;
+    }
+}
@@ -0,0 +1,313 @@
+package sensor3D;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+/**
+ * Maps the pixels of a depth camera into a color camera of the same sensor.
+ * For every depth pixel the undistorted ray, rotated into the color camera, is kept in a table, so mapping a pixel costs a multiply-add per axis and a division.
+ * The tables are rebuilt only when the resolution of the images or the calibration change. The color image is assumed to be free of lens distortion.
+ * mapColor gathers the color of every depth pixel, giving a color image aligned with the depth, which with an organized PointCloud gives colored points.
+ * mapDepth gives the depth seen from the color camera, keeping the nearest point where several land on the same pixel. A color image larger than the depth leaves gaps,
+ * so color intrinsics scaled to a smaller size may suit better.
+ * Frames are split in row bands processed in parallel on the common ForkJoin pool. Calls are serialized.
+ * @author Ricardo
+ */
+public class Registration
+{
+    private static final int MIN_BAND_ROWS = 16;
+    private static final int MAX_BANDS = Runtime.getRuntime().availableProcessors() * 2;
+
+    private Intrinsics depthModel;
+    private Intrinsics colorModel;
+    private Extrinsics extrinsics;
+    private float unit = 0.0001f;
+    private boolean changed = true;
+
+    private int depthWidth = -1;
+    private int depthHeight = -1;
+    private int colorWidth = -1;
+    private int colorHeight = -1;
+    private float[] rays = new float[0];
+    private float fx, fy, cx, cy, tx, ty, tz;
+
+    private short[][] in = new short[0][];
+    private int[][] targets = new int[0][];
+    private short[][] depths = new short[0][];
+    private byte[][] out = new byte[0][];
+    private byte[] color = new byte[0];
+    private short[] registered = new short[0];
+    private long frames;
+    private long time;
+
+    /**
+     * Creates a registration.
+     * @param depth The model of the depth camera. It is scaled to the size of the depth images if they differ.
+     * @param color The model of the color camera. It is scaled to the size of the color images if they differ.
+     * @param depthToColor The transform from the depth camera to the color camera.
+     */
+    public Registration(Intrinsics depth, Intrinsics color, Extrinsics depthToColor)
+    {
+        setCalibration(depth, color, depthToColor);
+    }
+
+    /**
+     * Creates a registration for two sources of a sensor.
+     * @param depth The depth source.
+     * @param color The color source.
+     * @param depthToColor The transform from the depth camera to the color camera.
+     * @return The registration, using the intrinsics of the sources.
+     * @throws IllegalArgumentException If the intrinsics of a source are not known.
+     */
+    public static Registration of(FrameSource depth, FrameSource color, Extrinsics depthToColor)
+    {
+        return new Registration(depth.getIntrinsics(), color.getIntrinsics(), depthToColor);
+    }
+
+    /**
+     * Replaces the calibration. The tables are rebuilt on the next frame.
+     * @param depth The model of the depth camera.
+     * @param color The model of the color camera.
+     * @param depthToColor The transform from the depth camera to the color camera.
+     */
+    public synchronized void setCalibration(Intrinsics depth, Intrinsics color, Extrinsics depthToColor)
+    {
+        if(depth == null || color == null || depthToColor == null)
+            throw new IllegalArgumentException("Registration needs the intrinsics of both cameras and the transform between them");
+        depthModel = depth;
+        colorModel = color;
+        extrinsics = depthToColor;
+        changed = true;
+    }
+
+    /**
+     * Sets the size of a depth unit.
+     * @param meters The meters per unit, 0.0001 by default for the 100 um depth of OpenNI, or 0.001 for millimeters.
+     */
+    public synchronized void setDepthUnit(float meters)
+    {
+        unit = meters;
+    }
+
+    /**
+     * Gives every depth pixel the color it sees.
+     * @param depth A CV_16UC1 Mat.
+     * @param color An 8 bit color Mat, of 1, 3 or 4 channels.
+     * @param result The result, allocated with the size of the depth and the type of the color. Pixels without depth or out of the color view are zero.
+     */
+    public synchronized void mapColor(Mat depth, Mat color, Mat result)
+    {
+        check(depth);
+        if(CvType.depth(color.type()) != CvType.CV_8U)
+            throw new IllegalArgumentException("Only 8 bit color can be mapped: " + CvType.typeToString(color.type()));
+        long start = System.nanoTime();
+        int rows = depth.rows();
+        int cols = depth.cols();
+        int channels = color.channels();
+        result.create(rows, cols, color.type());
+        prepare(cols, rows, color.cols(), color.rows());
+
+        int size = color.cols() * color.rows() * channels;
+        if(this.color.length != size)
+            this.color = new byte[size];
+        color.get(0, 0, this.color);
+
+        int bands = bands(rows, cols, channels);
+        IntStream.range(0, bands).parallel().forEach(band -> {
+            project(depth, band, bands);
+            gather(result, band, bands, channels);
+        });
+        done(start);
+    }
+
+    /**
+     * Computes the depth seen from the color camera.
+     * @param depth A CV_16UC1 Mat.
+     * @param result The result, allocated as CV_16UC1 with the size of the color intrinsics, in the same units as the depth. Pixels no point lands on are zero.
+     */
+    public synchronized void mapDepth(Mat depth, Mat result)
+    {
+        check(depth);
+        long start = System.nanoTime();
+        int rows = depth.rows();
+        int cols = depth.cols();
+        int width = colorModel.getWidth();
+        int height = colorModel.getHeight();
+        result.create(height, width, CvType.CV_16UC1);
+        prepare(cols, rows, width, height);
+
+        int bands = bands(rows, cols, 0);
+        IntStream.range(0, bands).parallel().forEach(band -> project(depth, band, bands));
+
+        if(registered.length != width * height)
+            registered = new short[width * height];
+        Arrays.fill(registered, (short)0);
+        short[] map = registered;
+        for(int band = 0; band < bands; band++)
+        {
+            int[] target = targets[band];
+            short[] z = depths[band];
+            int n = in[band].length;
+            for(int i = 0; i < n; i++)
+            {
+                int t = target[i];
+                if(t < 0)
+                    continue;
+                int old = map[t] & 0xFFFF;
+                if(old == 0 || (z[i] & 0xFFFF) < old)
+                    map[t] = z[i];
+            }
+        }
+        result.put(0, 0, map);
+        done(start);
+    }
+
+    /**
+     * Gets the number of frames mapped.
+     * @return The number of frames.
+     */
+    public synchronized long getFrames()
+    {
+        return frames;
+    }
+
+    /**
+     * Gets the time spent mapping frames.
+     * @return The time in nanoseconds.
+     */
+    public synchronized long getTime()
+    {
+        return time;
+    }
+
+    private static void check(Mat depth)
+    {
+        if(depth.type() != CvType.CV_16UC1)
+            throw new IllegalArgumentException("Only CV_16UC1 depth can be mapped: " + CvType.typeToString(depth.type()));
+    }
+
+    private void done(long start)
+    {
+        frames++;
+        time += System.nanoTime() - start;
+    }
+
+    private void prepare(int depthCols, int depthRows, int colorCols, int colorRows)
+    {
+        if(changed || depthCols != depthWidth || depthRows != depthHeight || colorCols != colorWidth || colorRows != colorHeight)
+            build(depthCols, depthRows, colorCols, colorRows);
+    }
+
+    private void build(int depthCols, int depthRows, int colorCols, int colorRows)
+    {
+        Intrinsics d = depthModel.scale(depthCols, depthRows);
+        Intrinsics c = colorModel.scale(colorCols, colorRows);
+        double[] r = extrinsics.getRotation();
+        double[] t = extrinsics.getTranslation();
+
+        rays = new float[depthCols * depthRows * 3];
+        double[] ray = new double[2];
+        for(int v = 0, i = 0; v < depthRows; v++)
+            for(int u = 0; u < depthCols; u++, i += 3)
+            {
+                d.ray(u, v, ray);
+                rays[i] = (float)(r[0] * ray[0] + r[1] * ray[1] + r[2]);
+                rays[i + 1] = (float)(r[3] * ray[0] + r[4] * ray[1] + r[5]);
+                rays[i + 2] = (float)(r[6] * ray[0] + r[7] * ray[1] + r[8]);
+            }
+        fx = (float)c.getFx();
+        fy = (float)c.getFy();
+        cx = (float)c.getCx();
+        cy = (float)c.getCy();
+        tx = (float)t[0];
+        ty = (float)t[1];
+        tz = (float)t[2];
+
+        depthWidth = depthCols;
+        depthHeight = depthRows;
+        colorWidth = colorCols;
+        colorHeight = colorRows;
+        changed = false;
+    }
+
+    private int bands(int rows, int cols, int channels)
+    {
+        int bands = Math.max(1, Math.min(MAX_BANDS, rows / MIN_BAND_ROWS));
+        if(in.length != bands)
+        {
+            in = new short[bands][];
+            targets = new int[bands][];
+            depths = new short[bands][];
+            out = new byte[bands][];
+        }
+        for(int band = 0; band < bands; band++)
+        {
+            int n = (rows * (band + 1) / bands - rows * band / bands) * cols;
+            if(in[band] == null || in[band].length != n)
+            {
+                in[band] = new short[n];
+                targets[band] = new int[n];
+                depths[band] = new short[n];
+            }
+            if(channels > 0 && (out[band] == null || out[band].length != n * channels))
+                out[band] = new byte[n * channels];
+        }
+        return bands;
+    }
+
+    private void project(Mat depth, int band, int bands)
+    {
+        int row = depth.rows() * band / bands;
+        short[] pixels = in[band];
+        int[] target = targets[band];
+        short[] z = depths[band];
+        depth.get(row, 0, pixels);
+
+        float[] table = rays;
+        float scale = unit;
+        float inverse = 1 / unit;
+        int width = colorWidth, height = colorHeight;
+        for(int i = 0, k = row * depth.cols() * 3; i < pixels.length; i++, k += 3)
+        {
+            int d = pixels[i] & 0xFFFF;
+            target[i] = -1;
+            if(d == 0)
+                continue;
+            float m = d * scale;
+            float zc = m * table[k + 2] + tz;
+            if(zc <= 0)
+                continue;
+            float w = 1 / zc;
+            int u = (int)Math.floor(fx * (m * table[k] + tx) * w + cx + 0.5f);
+            int v = (int)Math.floor(fy * (m * table[k + 1] + ty) * w + cy + 0.5f);
+            if(u < 0 || v < 0 || u >= width || v >= height)
+                continue;
+            target[i] = v * width + u;
+            z[i] = (short)Math.min(65535, Math.round(zc * inverse));
+        }
+    }
+
+    private void gather(Mat result, int band, int bands, int channels)
+    {
+        int row = result.rows() * band / bands;
+        int[] target = targets[band];
+        byte[] colors = out[band];
+        byte[] src = color;
+        for(int i = 0, j = 0; i < target.length; i++, j += channels)
+        {
+            int t = target[i];
+            if(t < 0)
+            {
+                for(int c = 0; c < channels; c++)
+                    colors[j + c] = 0;
+                continue;
+            }
+            t *= channels;
+            for(int c = 0; c < channels; c++)
+                colors[j + c] = src[t + c];
+        }
+        result.put(row, 0, colors);
+    }
+}
@@ -0,0 +1,66 @@
+package sensor3D;
+
+/**
+ * One stream of a recording as a FrameSource. Size, rate and format are those of the recording.
+ * Starting the source adds its stream to the playback of the StreamPlayer that created it.
+ * @author Ricardo
+ */
+final class ReplaySource extends AbstractFrameSource
+{
+    private final StreamPlayer player;
+    private final int mode;
+
+    ReplaySource(StreamPlayer player, int mode, int first)
+    {
+        super(width(player, first), height(player, first), player.getFrameRate(mode), player.getType(first));
+        this.player = player;
+        this.mode = mode;
+    }
+
+    private static int width(StreamPlayer player, int index)
+    {
+        return (int)player.getSize(index).width;
+    }
+
+    private static int height(StreamPlayer player, int index)
+    {
+        return (int)player.getSize(index).height;
+    }
+
+    @Override
+    public void setSize(int width, int height)
+    {
+    }
+
+    @Override
+    public void setFrameRate(int fps)
+    {
+    }
+
+    @Override
+    public void start()
+    {
+        player.start(mode);
+    }
+
+    @Override
+    public void stop()
+    {
+        player.stop(mode);
+    }
+
+    @Override
+    public boolean isRunning()
+    {
+        return player.isPlaying(mode);
+    }
+
+    void replay(int index)
+    {
+        SensorFrame frame = claim();
+        if(frame == null)
+            return;
+        player.read(index, frame.getMat());
+        publish(frame, player.getTimestamp(index));
+    }
+}
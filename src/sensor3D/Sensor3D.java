@@ -1,404 +1,493 @@
 package sensor3D;
 
-import java.nio.ByteOrder;
-import org.opencv.core.CvType;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.FloatBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.management.ObjectName;
+import metrics.Metrics;
 import org.opencv.core.Mat;
 import org.opencv.core.Size;
-import org.opencv.imgproc.Imgproc;
 import org.openni.Device;
 import org.openni.OpenNI;
-import org.openni.PixelFormat;
 import org.openni.SensorType;
-import org.openni.VideoFrameRef;
-import org.openni.VideoMode;
-import org.openni.VideoStream;
 
 public class Sensor3D
 {
     private final Device sensor;
+    private final StreamPlayer player;
     
-    private RGBCam RGBCam;
-    private DepthCam depthCam;
-    private IRCam IRCam;
+    private final FrameSource[] sources = new FrameSource[3];
+    private volatile FrameAligner aligner;
+    private volatile StreamRecorder recorder;
+    private volatile int recordModes;
+    private volatile PointCloud cloud;
+    private volatile DepthFilter filter;
+    private volatile DepthFilter dispatchFilter;
+    private volatile FrameListener listener;
     
     public final static int RGB = 1;
     public final static int DEPTH = 2;
     public final static int IR = 4;
     
+    private final static int[] MODES = {RGB, DEPTH, IR};
+    private final static String[] NAMES = {"RGB", "DEPTH", "IR"};
+    private final static AtomicInteger count = new AtomicInteger();
+    
+    private final StreamMetrics[] metrics = new StreamMetrics[3];
+    private final ObjectName[] names = new ObjectName[3];
+    
     public Sensor3D(int i)
     {
-        sensor=Device.open(OpenNI.enumerateDevices().get(i).getUri());
-        RGBCam = new RGBCam();
-        depthCam = new DepthCam();
-        IRCam = new IRCam();
+        this(Device.open(OpenNI.enumerateDevices().get(i).getUri()));
     }
     
     public Sensor3D(Device sensor)
     {
         this.sensor=sensor;
-        RGBCam = new RGBCam();
-        depthCam = new DepthCam();
-        IRCam = new IRCam();
+        player = null;
+        sources[0] = new OpenNIStream(sensor, SensorType.COLOR);
+        sources[1] = new OpenNIStream(sensor, SensorType.DEPTH);
+        sources[2] = new OpenNIStream(sensor, SensorType.IR);
+        listen();
+    }
+    
+    /**
+     * Opens a recording made with record. Starting a stream replays it through the same callbacks as a live sensor.
+     * Sizes and frame rates are taken from the recording.
+     * @param recording The path of the recording.
+     * @throws IOException If the recording cannot be read.
+     */
+    public Sensor3D(String recording) throws IOException
+    {
+        sensor = null;
+        player = new StreamPlayer(recording);
+        for(int mode : MODES)
+            sources[FrameSet.index(mode)] = player.getSource(mode);
+        listen();
+    }
+    
+    /**
+     * Builds a sensor from any sources, for example a SyntheticSource for depth. Missing streams are null.
+     * @param rgb The BGR source.
+     * @param depth The depth source.
+     * @param ir The IR source.
+     */
+    public Sensor3D(FrameSource rgb, FrameSource depth, FrameSource ir)
+    {
+        sensor = null;
+        player = null;
+        sources[0] = rgb;
+        sources[1] = depth;
+        sources[2] = ir;
+        listen();
+    }
+    
+    private void listen()
+    {
+        int id = count.getAndIncrement();
+        for(int mode : MODES)
+        {
+            int index = FrameSet.index(mode);
+            FrameSource source = sources[index];
+            if(source == null)
+                continue;
+            metrics[index] = new StreamMetrics(NAMES[index], source);
+            names[index] = Metrics.register("sensor3D", "Stream", "sensor" + id + " " + NAMES[index], metrics[index]);
+            source.setListener((s, frame) -> deliver(mode, frame));
+        }
     }
     
     
     
     public void start(int modes)
     {
-        if((modes&RGB) == RGB)
-            RGBCam.start();
-        
-        if((modes&DEPTH) == DEPTH)
-            depthCam.start();
-        
-        if((modes&IR) == IR)
-            IRCam.start();
+        for(int mode : MODES)
+            if((modes&mode) == mode && getSource(mode) != null)
+                getSource(mode).start();
     }
     
-    public void setSize(int modes, int width, int height)
+    public void stop(int modes)
     {
-        if((modes&RGB) == RGB)
-            RGBCam.setSize(width, height);
-        
-        if((modes&DEPTH) == DEPTH)
-            depthCam.setSize(width, height);
-        
-        if((modes&IR) == IR)
-            IRCam.setSize(width, height);
+        for(int mode : MODES)
+            if((modes&mode) == mode && getSource(mode) != null)
+                getSource(mode).stop();
     }
     
-    public Size getSize(int mode)
+    /**
+     * Gets the source of a stream.
+     * @param mode RGB, DEPTH or IR.
+     * @return The source, or null if this sensor does not have the stream.
+     */
+    public FrameSource getSource(int mode)
     {
         if((mode&RGB) == RGB)
-            return RGBCam.getSize();
+            return sources[0];
         
         if((mode&DEPTH) == DEPTH)
-            return depthCam.getSize();
+            return sources[1];
         
         if((mode&IR) == IR)
-            return IRCam.getSize();
+            return sources[2];
         return null;
     }
     
+    public void setSize(int modes, int width, int height)
+    {
+        for(int mode : MODES)
+            if((modes&mode) == mode && getSource(mode) != null)
+                getSource(mode).setSize(width, height);
+    }
+    
+    public Size getSize(int mode)
+    {
+        FrameSource source = getSource(mode);
+        return source == null ? null : new Size(source.getWidth(), source.getHeight());
+    }
+    
     public void setFrameRate(int modes, int fps)
     {
-        if((modes&RGB) == RGB)
-            RGBCam.setFrameRate(fps);
-        
-        if((modes&DEPTH) == DEPTH)
-            depthCam.setFrameRate(fps);
-        
-        if((modes&IR) == IR)
-            IRCam.setFrameRate(fps);
+        for(int mode : MODES)
+            if((modes&mode) == mode && getSource(mode) != null)
+                getSource(mode).setFrameRate(fps);
     }
     
     public int getFrameRate(int mode)
     {
-        if((mode&RGB) == RGB)
-            return RGBCam.getFrameRate();
-        
-        if((mode&DEPTH) == DEPTH)
-            return depthCam.getFrameRate();
-        
-        if((mode&IR) == IR)
-            return IRCam.getFrameRate();
-        return -1;
+        FrameSource source = getSource(mode);
+        return source == null ? -1 : source.getFrameRate();
     }
     
     public void enableEvent(int modes, boolean evt)
     {
-        if((modes&RGB) == RGB)
-            RGBCam.enableEvent(evt);
-        
-        if((modes&DEPTH) == DEPTH)
-            depthCam.enableEvent(evt);
-        
-        if((modes&IR) == IR)
-            IRCam.enableEvent(evt);
+        for(int mode : MODES)
+            if((modes&mode) == mode && getSource(mode) instanceof OpenNIStream)
+                ((OpenNIStream)getSource(mode)).enableEvent(evt);
+    }
+    
+    
+    /**
+     * Gets the delivery metrics of a stream, also registered as the JMX MBean sensor3D:type=Stream.
+     * @param mode RGB, DEPTH or IR.
+     * @return The metrics, or null if this sensor does not have the stream.
+     */
+    public StreamMetrics getMetrics(int mode)
+    {
+        for(int m : MODES)
+            if((mode&m) == m)
+                return metrics[FrameSet.index(m)];
+        return null;
+    }
+    
+    public FrameRing getFrames(int mode)
+    {
+        FrameSource source = getSource(mode);
+        return source == null ? null : source.getFrames();
     }
     
     
+    /**
+     * Gets a copy of the newest RGB image, reading it from the driver if events are disabled.
+     * The copy belongs to the caller, so newer frames never overwrite it. getRGB(Mat) reuses a Mat instead, and getFrames(RGB).acquireLatest reads the frame without copying.
+     * @return The BGR image, or null if there is no RGB stream or no frame yet.
+     */
     public Mat getRGB()
     {
-        RGBCam.readFrame(RGBCam.video.readFrame());
-        return RGBCam.image;
+        return read(RGB);
     }
     
+    /**
+     * Copies the newest RGB image, reading it from the driver if events are disabled.
+     * @param dst The Mat to copy into, reallocated only if its size or type differ.
+     * @return True if there was a frame to copy.
+     */
+    public boolean getRGB(Mat dst)
+    {
+        return read(RGB, dst);
+    }
+    
+    /**
+     * Gets a copy of the newest depth image, reading it from the driver if events are disabled.
+     * The copy belongs to the caller, so newer frames never overwrite it. getDepth(Mat) reuses a Mat instead, and getFrames(DEPTH).acquireLatest reads the frame without copying.
+     * @return The depth image, or null if there is no depth stream or no frame yet.
+     */
     public Mat getDepth()
     {
-        depthCam.readFrame(depthCam.video.readFrame());
-        return depthCam.image;
+        return read(DEPTH);
     }
     
-    public Mat getIR()
+    /**
+     * Copies the newest depth image, reading it from the driver if events are disabled.
+     * @param dst The Mat to copy into, reallocated only if its size or type differ.
+     * @return True if there was a frame to copy.
+     */
+    public boolean getDepth(Mat dst)
     {
-        IRCam.readFrame(IRCam.video.readFrame());
-        return IRCam.image;
+        return read(DEPTH, dst);
     }
     
+    /**
+     * Gets a copy of the newest IR image, reading it from the driver if events are disabled.
+     * The copy belongs to the caller, so newer frames never overwrite it. getIR(Mat) reuses a Mat instead, and getFrames(IR).acquireLatest reads the frame without copying.
+     * @return The IR image, or null if there is no IR stream or no frame yet.
+     */
+    public Mat getIR()
+    {
+        return read(IR);
+    }
     
-    public void readRGB(Mat RGBFrame){}
-    public void readDepth(Mat depthFrame){}
-    public void readIR(Mat IRFrame){}
+    /**
+     * Copies the newest IR image, reading it from the driver if events are disabled.
+     * @param dst The Mat to copy into, reallocated only if its size or type differ.
+     * @return True if there was a frame to copy.
+     */
+    public boolean getIR(Mat dst)
+    {
+        return read(IR, dst);
+    }
     
+    private Mat read(int mode)
+    {
+        Mat dst = new Mat();
+        if(read(mode, dst))
+            return dst;
+        dst.release();
+        return null;
+    }
     
-    public void close()
+    private boolean read(int mode, Mat dst)
     {
-        if(RGBCam.video != null)
+        FrameSource source = getSource(mode);
+        if(source == null)
+            return false;
+        SensorFrame frame = source instanceof OpenNIStream ? ((OpenNIStream)source).acquire() : source.getFrames().acquireLatest();
+        if(frame == null)
+            return false;
+        try(SensorFrame f = frame)
         {
-            if(RGBCam.event)
-                RGBCam.video.removeNewFrameListener(RGBCam);
-            RGBCam.video.stop();
-            RGBCam.video.destroy();
-            RGBCam.video=null;
+            f.getMat().copyTo(dst);
         }
-        if(depthCam.video != null)
-        {
-            if(depthCam.event)
-                depthCam.video.removeNewFrameListener(depthCam);
-            depthCam.video.stop();
-            depthCam.video.destroy();
-            depthCam.video=null;
-        }
-        if(IRCam.video != null)
-        {
-            if(IRCam.event)
-                IRCam.video.removeNewFrameListener(IRCam);
-            IRCam.video.stop();
-            IRCam.video.destroy();
-            IRCam.video=null;
-        }
-        sensor.close();
+        return true;
     }
     
-    private final class RGBCam implements VideoStream.NewFrameListener
+    
+    /**
+     * Groups the frames of the given streams by device timestamp and delivers them to readFrameSet.
+     * It only applies to streams with events enabled.
+     * @param modes The streams to align, at least two, or 0 to stop aligning.
+     * @param tolerance The maximum difference between the timestamps of a set, in microseconds.
+     * @param maxWait The maximum time a frame waits for the frames of the other streams, in microseconds.
+     */
+    public void align(int modes, long tolerance, long maxWait)
     {
-        private Mat image;
-        private byte[] buffer;
-        private VideoStream video;
-        
-        private Size size;
-        private int fps;
-        private boolean event;
-        
-        public RGBCam()
-        {
-            setSize(640, 480);
-            setFrameRate(30);
-            event = true;
-        }
-        
-        public void enableEvent(boolean evt)
-        {
-            event = evt;
-        }
-        
-        public Size getSize()
-        {
-            return size;
-        }
-        
-        public void setSize(int width, int height)
-        {
-            size = new Size(width, height);
-            buffer = new byte[(int)size.width * (int)size.height * 3];
-            image = new Mat(size, CvType.CV_8UC3);
-        }
-        
-        public int getFrameRate()
-        {
-            return fps;
-        }
-        
-        public void setFrameRate(int fps)
-        {
-            this.fps = fps;
-        }
-        
-        public void start()
-        {
-            video = VideoStream.create(sensor, SensorType.COLOR);
-            
-            VideoMode modeVideo = new VideoMode();
-            modeVideo.setResolution((int)size.width, (int)size.height);
-            modeVideo.setFps(fps);
-            modeVideo.setPixelFormat(PixelFormat.RGB888);
-            
-            video.setVideoMode(modeVideo);
-            video.addNewFrameListener(this);
-            if(!event)
-                video.removeNewFrameListener(this);
-            
-            video.start();
-        }
-        
-        @Override
-        public synchronized void onFrameReady(VideoStream stream)
-        {
-            readFrame(stream.readFrame());
-            readRGB(image);
-        }
-        
-        private void readFrame(VideoFrameRef lastFrame)
-        {
-            lastFrame.getData().order(ByteOrder.LITTLE_ENDIAN).get(buffer);
-            image.put(0, 0, buffer);
-            Imgproc.cvtColor(image, image, Imgproc.COLOR_RGB2BGR);
-            lastFrame.release();
-        }
+        FrameAligner old = aligner;
+        aligner = modes == 0 ? null : new FrameAligner(modes, tolerance, maxWait, this::readFrameSet);
+        if(old != null)
+            old.close();
     }
     
-    private final class DepthCam implements VideoStream.NewFrameListener
+    public FrameAligner getAligner()
     {
-        private Mat image;
-        private short[] buffer;
-        private VideoStream video;
-        
-        private Size size;
-        private int fps;
-        private boolean event;
-
-
-        public DepthCam()
-        {
-            setSize(640, 480);
-            setFrameRate(30);
-            event = true;
-        }
-        
-        public void enableEvent(boolean evt)
-        {
-            event = evt;
-        }
-        
-        public Size getSize()
-        {
-            return size;
-        }
-        
-        public void setSize(int width, int height)
-        {
-            size = new Size(width, height);
-            buffer = new short[(int)size.width * (int)size.height];
-            image = new Mat(size, CvType.CV_16UC1);
-        }
-        
-        public int getFrameRate()
-        {
-            return fps;
-        }
-        
-        public void setFrameRate(int fps)
+        return aligner;
+    }
+    
+    /**
+     * Passes every delivered frame, of any stream, to a listener, such as the Input of a Pipeline, besides the read callbacks.
+     * Depth frames are passed after the depth filter. It only applies to streams with events enabled or replayed.
+     * @param listener The listener, or null to stop.
+     */
+    public void setFrameListener(FrameListener listener)
+    {
+        this.listener = listener;
+    }
+    
+    public FrameListener getFrameListener()
+    {
+        return listener;
+    }
+    
+    /**
+     * Filters every depth frame in place before the source publishes it, so readDepth, getDepth, the ring, the point cloud, the aligner and recordings only see filtered frames.
+     * The filter runs on the thread of the depth source.
+     * A depth source that cannot process its frames, such as a FrameSource of the application that does not extend AbstractFrameSource, is filtered when its frames are delivered instead.
+     * Then the callbacks, the point cloud, the aligner and recordings still only see filtered frames, but getDepth and the ring may return a frame before it is filtered.
+     * @param filter The filter, or null to stop.
+     * @throws IllegalStateException If this sensor has no depth stream.
+     */
+    public void setDepthFilter(DepthFilter filter)
+    {
+        FrameSource source = getSource(DEPTH);
+        if(source == null)
+            throw new IllegalStateException("This sensor has no depth stream");
+        try
         {
-            this.fps = fps;
+            source.setProcessor(filter == null ? null : filter::filter);
+            dispatchFilter = null;
         }
-        
-        public void start()
+        catch(UnsupportedOperationException e)
         {
-            video = VideoStream.create(sensor, SensorType.DEPTH);
-            
-            VideoMode modeDepth = new VideoMode();
-            modeDepth.setResolution((int)size.width, (int)size.height);
-            modeDepth.setFps(fps);
-            modeDepth.setPixelFormat(PixelFormat.DEPTH_100_UM);
-            
-            video.setVideoMode(modeDepth);
-            video.addNewFrameListener(this);
-            if(!event)
-                video.removeNewFrameListener(this);
-            video.start();
+            dispatchFilter = filter;
         }
-        
-        @Override
-        public synchronized void onFrameReady(VideoStream stream)
+        this.filter = filter;
+    }
+    
+    public DepthFilter getDepthFilter()
+    {
+        return filter;
+    }
+    
+    /**
+     * Converts every delivered depth frame into points and passes them to readPointCloud.
+     * It only applies to a depth stream with events enabled or replayed.
+     * @param cloud The generator, such as PointCloud.of(getSource(DEPTH)), or null to stop.
+     */
+    public void setPointCloud(PointCloud cloud)
+    {
+        this.cloud = cloud;
+    }
+    
+    public PointCloud getPointCloud()
+    {
+        return cloud;
+    }
+    
+    /**
+     * Reads the latest depth frame and converts it into points.
+     * @return The points, from position 0 to the limit, in a buffer reused by the next conversion, or null if there is no depth frame.
+     * @throws IllegalStateException If no generator was set with setPointCloud.
+     */
+    public FloatBuffer getPoints()
+    {
+        PointCloud c = cloud;
+        if(c == null)
+            throw new IllegalStateException("No point cloud generator was set");
+        Mat depth = getDepth();
+        return depth == null ? null : c.compute(depth);
+    }
+    
+    /**
+     * Starts writing the frames of the given streams to a recording, replacing any recording in progress.
+     * Frames are recorded as they are delivered, so only streams with events enabled or replayed are recorded.
+     * @param file The path of the recording.
+     * @param modes The streams to record.
+     * @throws IOException If the file cannot be created or the previous recording failed.
+     */
+    public void record(String file, int modes) throws IOException
+    {
+        stopRecording();
+        recordModes = modes;
+        recorder = new StreamRecorder(file);
+    }
+    
+    /**
+     * Finishes the recording in progress, if any.
+     * @throws IOException If some frame could not be written.
+     */
+    public void stopRecording() throws IOException
+    {
+        StreamRecorder r = recorder;
+        recorder = null;
+        if(r != null)
+            r.close();
+    }
+    
+    public StreamRecorder getRecorder()
+    {
+        return recorder;
+    }
+    
+    public StreamPlayer getPlayer()
+    {
+        return player;
+    }
+    
+    private void deliver(int mode, SensorFrame frame)
+    {
+        metrics[FrameSet.index(mode)].record(frame);
+        Metrics.setOrigin(frame.getArrival());
+        try
         {
-            readFrame(stream.readFrame());
-            readDepth(image);
+            dispatch(mode, frame);
         }
-        
-        private void readFrame(VideoFrameRef lastFrame)
+        finally
         {
-            lastFrame.getData().order(ByteOrder.LITTLE_ENDIAN).asShortBuffer().get(buffer);
-            image.put(0, 0, buffer);
-            lastFrame.release();
+            Metrics.setOrigin(-1);
         }
     }
     
-    private final class IRCam implements VideoStream.NewFrameListener
+    private void dispatch(int mode, SensorFrame frame)
     {
-        public Mat image;
-        private short[] buffer;
-        private VideoStream video;
+        DepthFilter f = dispatchFilter;
+        if(f != null && mode == DEPTH)
+            f.filter(frame.getMat());
         
-        private Size size;
-        private int fps;
-        private boolean event;
-
-
-        public IRCam()
-        {
-            setSize(640, 480);
-            setFrameRate(30);
-            event = true;
-        }
+        StreamRecorder r = recorder;
+        if(r != null && (recordModes&mode) == mode)
+            r.record(mode, frame);
         
-        public void enableEvent(boolean evt)
-        {
-            event = evt;
-        }
+        FrameListener l = listener;
+        if(l != null)
+            l.onFrame(getSource(mode), frame);
         
-        public Size getSize()
+        switch(mode)
         {
-            return size;
+            case RGB: readRGB(frame.getMat()); break;
+            case DEPTH: readDepth(frame.getMat()); break;
+            case IR: readIR(frame.getMat()); break;
         }
         
-        public void setSize(int width, int height)
-        {
-            size = new Size(width, height);
-            buffer = new short[(int)size.width * (int)size.height];
-            image = new Mat(size, CvType.CV_16UC1);
-        }
+        PointCloud c = cloud;
+        if(c != null && mode == DEPTH)
+            readPointCloud(c.compute(frame.getMat()));
         
-        public int getFrameRate()
-        {
-            return fps;
-        }
+        FrameAligner a = aligner;
+        if(a != null)
+            a.offer(mode, frame);
+    }
+    
+    
+    public void readRGB(Mat RGBFrame){}
+    public void readDepth(Mat depthFrame){}
+    public void readIR(Mat IRFrame){}
+    public void readFrameSet(FrameSet frameSet){}
+    public void readPointCloud(FloatBuffer points){}
+    
+    
+    public void close()
+    {
+        for(FrameSource source : sources)
+            if(source != null)
+                source.stop();
         
-        public void setFrameRate(int fps)
+        IOException error = null;
+        if(player != null)
         {
-            this.fps = fps;
+            try
+            {
+                player.close();
+            }
+            catch(IOException e)
+            {
+                error = e;
+            }
         }
-        
-        public void start()
+        try
         {
-            video = VideoStream.create(sensor, SensorType.IR);
-            
-            VideoMode modeIR = new VideoMode();
-            modeIR.setResolution((int)size.width, (int)size.height);
-            modeIR.setFps(fps);
-            modeIR.setPixelFormat(PixelFormat.GRAY16);
-            
-            video.setVideoMode(modeIR);
-            video.addNewFrameListener(this);
-            if(!event)
-                video.removeNewFrameListener(this);
-            
-            video.start();
+            stopRecording();
         }
-        
-        @Override
-        public synchronized void onFrameReady(VideoStream stream)
+        catch(IOException e)
         {
-            readFrame(stream.readFrame());
-            readIR(image);
+            error = e;
         }
         
-        private void readFrame(VideoFrameRef lastFrame)
-        {
-            lastFrame.getData().order(ByteOrder.LITTLE_ENDIAN).asShortBuffer().get(buffer);
-            image.put(0, 0, buffer);
-            image.convertTo(image, CvType.CV_16UC1, 255);
-            lastFrame.release();
-        }
+        FrameAligner a = aligner;
+        if(a != null)
+            a.close();
+        for(ObjectName name : names)
+            Metrics.unregister(name);
+        if(sensor != null)
+            sensor.close();
+        if(error != null)
+            throw new UncheckedIOException(error);
     }
 }
@@ -0,0 +1,97 @@
+package sensor3D;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import org.opencv.core.Mat;
+
+/**
+ * A preallocated frame slot of a FrameRing.
+ * A consumer that acquired a frame owns a read reference to it and the producer will not overwrite it until every reference is released.
+ * @author Ricardo
+ */
+public final class SensorFrame implements AutoCloseable
+{
+    static final int WRITING = -1;
+    static final int FREE = 0;
+
+    final AtomicInteger state = new AtomicInteger(FREE);
+    private final Mat mat;
+    volatile long sequence = -1;
+    volatile long timestamp;
+    volatile long arrival;
+
+    SensorFrame(int rows, int cols, int type)
+    {
+        mat = new Mat(rows, cols, type);
+    }
+
+    /**
+     * Gets the image of the frame. It must not be modified nor used after the frame is released.
+     * @return The Mat of the frame.
+     */
+    public Mat getMat()
+    {
+        return mat;
+    }
+
+    /**
+     * Gets the sequence number given by the ring when the frame was published. Sequence numbers start at 0 and increase by 1 for each published frame.
+     * @return The sequence number of the frame.
+     */
+    public long getSequence()
+    {
+        return sequence;
+    }
+
+    /**
+     * Gets the device timestamp of the frame.
+     * @return The timestamp in microseconds, as given by the sensor.
+     */
+    public long getTimestamp()
+    {
+        return timestamp;
+    }
+
+    /**
+     * Gets the time the frame was published, on the clock of this machine, to measure how long it takes to be processed or displayed.
+     * @return The System.nanoTime of the publication.
+     */
+    public long getArrival()
+    {
+        return arrival;
+    }
+
+    /**
+     * Gives the frame back to its ring. It must be called exactly once for each time the frame was acquired.
+     */
+    public void release()
+    {
+        state.decrementAndGet();
+    }
+
+    /**
+     * Same as release, to be used with try-with-resources.
+     */
+    @Override
+    public void close()
+    {
+        release();
+    }
+
+    boolean pin()
+    {
+        int s;
+        do
+        {
+            s = state.get();
+            if(s < FREE)
+                return false;
+        }
+        while(!state.compareAndSet(s, s + 1));
+        return true;
+    }
+
+    void dispose()
+    {
+        mat.release();
+    }
+}
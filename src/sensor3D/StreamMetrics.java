@@ -0,0 +1,132 @@
+package sensor3D;
+
+import canvas.FrameStats;
+import metrics.Metrics;
+
+/**
+ * Measures the frames a stream delivers: their rate, the intervals between them and their jitter, from the time they arrive on this machine.
+ * It is written by the thread of the stream and can be read from any thread, through JMX or the getters.
+ * @author Ricardo
+ */
+public final class StreamMetrics implements StreamMetricsMBean
+{
+    private final String stream;
+    private final FrameSource source;
+    private final FrameStats intervals = new FrameStats();
+    private long frames;
+    private long last = -1;
+    private long lastInterval = -1;
+    private double interval;
+    private double jitter;
+
+    /**
+     * Creates the metrics of a stream.
+     * @param stream The name of the stream.
+     * @param source The source of the stream, to count the frames its ring drops.
+     */
+    public StreamMetrics(String stream, FrameSource source)
+    {
+        this.stream = stream;
+        this.source = source;
+    }
+
+    /**
+     * Records a delivered frame.
+     * @param frame The frame.
+     */
+    public void record(SensorFrame frame)
+    {
+        long arrival = frame.getArrival();
+        long d = -1;
+        synchronized(this)
+        {
+            frames++;
+            if(last >= 0)
+            {
+                d = arrival - last;
+                intervals.record(d);
+                interval = interval == 0 ? d : interval + (d - interval) / 16;
+                if(lastInterval >= 0)
+                    jitter += (Math.abs(d - lastInterval) - jitter) / 16;
+                lastInterval = d;
+            }
+            last = arrival;
+        }
+        Metrics.frame(stream, frame.getSequence(), frame.getTimestamp(), d);
+    }
+
+    @Override
+    public String getStream()
+    {
+        return stream;
+    }
+
+    @Override
+    public synchronized long getFrames()
+    {
+        return frames;
+    }
+
+    @Override
+    public long getDropped()
+    {
+        FrameRing ring = source.getFrames();
+        return ring == null ? 0 : ring.getDropped();
+    }
+
+    @Override
+    public synchronized double getFrameRate()
+    {
+        return interval == 0 ? 0 : 1e9 / interval;
+    }
+
+    @Override
+    public synchronized double getJitter()
+    {
+        return jitter / 1e6;
+    }
+
+    @Override
+    public double getMeanInterval()
+    {
+        return intervals.getMean() / 1e6;
+    }
+
+    @Override
+    public double getP99Interval()
+    {
+        return intervals.getP99() / 1e6;
+    }
+
+    @Override
+    public double getMaxInterval()
+    {
+        return intervals.getMax() / 1e6;
+    }
+
+    /**
+     * Gets the histogram of the intervals between deliveries.
+     * @return The intervals, in nanoseconds.
+     */
+    public FrameStats getIntervals()
+    {
+        return intervals;
+    }
+
+    @Override
+    public synchronized void reset()
+    {
+        frames = 0;
+        last = -1;
+        lastInterval = -1;
+        interval = 0;
+        jitter = 0;
+        intervals.reset();
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s: %.1f fps jitter=%.3fms dropped=%d %s", stream, getFrameRate(), getJitter(), getDropped(), intervals);
+    }
+}
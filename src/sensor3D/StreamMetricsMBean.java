@@ -0,0 +1,61 @@
+package sensor3D;
+
+/**
+ * The JMX view of the frames a Sensor3D stream delivers. Times are in milliseconds.
+ * @author Ricardo
+ */
+public interface StreamMetricsMBean
+{
+    /**
+     * Gets the name of the stream.
+     * @return RGB, DEPTH or IR.
+     */
+    String getStream();
+
+    /**
+     * Gets the number of frames delivered.
+     * @return The number of frames.
+     */
+    long getFrames();
+
+    /**
+     * Gets the number of frames the ring of the stream dropped because every slot was held.
+     * @return The number of dropped frames.
+     */
+    long getDropped();
+
+    /**
+     * Gets the recent rate frames are delivered at.
+     * @return The frames per second, from the smoothed interval between deliveries.
+     */
+    double getFrameRate();
+
+    /**
+     * Gets the jitter of the deliveries, the smoothed difference between consecutive intervals, as in RFC 3550.
+     * @return The jitter in milliseconds.
+     */
+    double getJitter();
+
+    /**
+     * Gets the mean interval between deliveries.
+     * @return The interval in milliseconds.
+     */
+    double getMeanInterval();
+
+    /**
+     * Gets the 99th percentile of the interval between deliveries.
+     * @return The interval in milliseconds.
+     */
+    double getP99Interval();
+
+    /**
+     * Gets the longest interval between deliveries.
+     * @return The interval in milliseconds.
+     */
+    double getMaxInterval();
+
+    /**
+     * Clears the counters and the intervals.
+     */
+    void reset();
+}
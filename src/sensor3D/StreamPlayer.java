@@ -0,0 +1,436 @@
+package sensor3D;
+
+import canvas.NativeMemory;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+
+/**
+ * Replays a file written by StreamRecorder.
+ * The file is memory mapped, so a frame goes from the page cache into the destination Mat in a single copy.
+ * Playback runs on its own thread, either paced by the recorded timestamps or as fast as possible.
+ * @author Ricardo
+ */
+public final class StreamPlayer implements AutoCloseable
+{
+    /**
+     * Receives the frames of a playback.
+     */
+    public interface Listener
+    {
+        /**
+         * Called on the playback thread for each frame, in file order.
+         * @param player The player. Use read to copy the frame.
+         * @param index The index of the frame in the file.
+         */
+        void onFrame(StreamPlayer player, int index);
+    }
+
+    private static final long MAX_CHUNK = 1L << 30;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer[] chunks;
+    private final int count;
+    private final byte[] modes;
+    private final int[] chunk;
+    private final int[] offset;
+    private final int[] width;
+    private final int[] height;
+    private final int[] type;
+    private final int[] length;
+    private final long[] timestamp;
+    private final long[] sequence;
+
+    private final ReplaySource[] sources = new ReplaySource[3];
+    private volatile int sourceModes;
+    private volatile Thread thread;
+    private volatile boolean realtime = true;
+    private volatile boolean repeat;
+
+    /**
+     * Opens and indexes a recording.
+     * @param file The path of the file.
+     * @throws IOException If the file cannot be read or is not a recording.
+     */
+    public StreamPlayer(String file) throws IOException
+    {
+        channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ);
+        long size = channel.size();
+        ByteBuffer header = ByteBuffer.allocate(StreamRecorder.RECORD_HEADER).order(ByteOrder.LITTLE_ENDIAN);
+
+        header.limit(StreamRecorder.HEADER);
+        readFully(header, 0);
+        if(header.getInt(0) != StreamRecorder.MAGIC || header.getInt(4) != StreamRecorder.VERSION)
+        {
+            channel.close();
+            throw new IOException("Not a sensor recording: " + file);
+        }
+
+        List<long[]> records = new ArrayList<>();
+        long position = StreamRecorder.HEADER;
+        while(position + StreamRecorder.RECORD_HEADER <= size)
+        {
+            header.clear();
+            readFully(header, position);
+            int bytes = header.getInt(StreamRecorder.RECORD_HEADER - 4);
+            long data = position + StreamRecorder.RECORD_HEADER;
+            if(bytes < 0 || data + bytes > size)
+                break;
+            records.add(new long[]{position, header.get(0), header.getInt(1), header.getInt(5), header.getInt(9), header.getLong(13), header.getLong(21), bytes});
+            position = data + bytes;
+        }
+
+        count = records.size();
+        modes = new byte[count];
+        chunk = new int[count];
+        offset = new int[count];
+        width = new int[count];
+        height = new int[count];
+        type = new int[count];
+        length = new int[count];
+        timestamp = new long[count];
+        sequence = new long[count];
+
+        List<MappedByteBuffer> maps = new ArrayList<>();
+        long chunkStart = -1;
+        long chunkEnd = -1;
+        for(int i = 0; i < count; i++)
+        {
+            long[] r = records.get(i);
+            long data = r[0] + StreamRecorder.RECORD_HEADER;
+            long end = data + r[7];
+            if(chunkStart < 0 || end - chunkStart > MAX_CHUNK)
+            {
+                if(chunkStart >= 0)
+                    maps.add(channel.map(FileChannel.MapMode.READ_ONLY, chunkStart, chunkEnd - chunkStart));
+                chunkStart = data;
+            }
+            chunkEnd = end;
+            chunk[i] = maps.size();
+            offset[i] = (int)(data - chunkStart);
+            modes[i] = (byte)r[1];
+            width[i] = (int)r[2];
+            height[i] = (int)r[3];
+            type[i] = (int)r[4];
+            timestamp[i] = r[5];
+            sequence[i] = r[6];
+            length[i] = (int)r[7];
+        }
+        if(chunkStart >= 0)
+            maps.add(channel.map(FileChannel.MapMode.READ_ONLY, chunkStart, chunkEnd - chunkStart));
+        chunks = maps.toArray(new MappedByteBuffer[maps.size()]);
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException
+    {
+        while(buffer.hasRemaining())
+            if(channel.read(buffer, position + buffer.position()) < 0)
+                throw new IOException("Unexpected end of recording");
+    }
+
+//<editor-fold defaultstate="collapsed" desc="Index">
+    /**
+     * Gets the number of frames in the file.
+     * @return The number of frames of every stream.
+     */
+    public int getFrameCount()
+    {
+        return count;
+    }
+
+    /**
+     * Gets the streams present in the file.
+     * @return The Sensor3D flags of the recorded streams.
+     */
+    public int getModes()
+    {
+        int m = 0;
+        for(int i = 0; i < count; i++)
+            m |= modes[i];
+        return m;
+    }
+
+    /**
+     * Gets the stream of a frame.
+     * @param index The index of the frame.
+     * @return Sensor3D.RGB, Sensor3D.DEPTH or Sensor3D.IR.
+     */
+    public int getMode(int index)
+    {
+        return modes[index];
+    }
+
+    /**
+     * Gets the device timestamp of a frame.
+     * @param index The index of the frame.
+     * @return The timestamp in microseconds.
+     */
+    public long getTimestamp(int index)
+    {
+        return timestamp[index];
+    }
+
+    /**
+     * Gets the sequence number the frame had when it was recorded.
+     * @param index The index of the frame.
+     * @return The sequence number.
+     */
+    public long getSequence(int index)
+    {
+        return sequence[index];
+    }
+
+    /**
+     * Gets the OpenCV type of a frame.
+     * @param index The index of the frame.
+     * @return The CvType of the frame.
+     */
+    public int getType(int index)
+    {
+        return type[index];
+    }
+
+    /**
+     * Gets the size of a frame.
+     * @param index The index of the frame.
+     * @return The width and height of the frame.
+     */
+    public Size getSize(int index)
+    {
+        return new Size(width[index], height[index]);
+    }
+
+    /**
+     * Finds the first frame of a stream.
+     * @param mode Sensor3D.RGB, Sensor3D.DEPTH or Sensor3D.IR.
+     * @return The index of the frame, or -1 if the stream was not recorded.
+     */
+    public int first(int mode)
+    {
+        for(int i = 0; i < count; i++)
+            if(modes[i] == mode)
+                return i;
+        return -1;
+    }
+
+    /**
+     * Estimates the frame rate of a stream from its timestamps.
+     * @param mode Sensor3D.RGB, Sensor3D.DEPTH or Sensor3D.IR.
+     * @return The frame rate, or 0 if the stream has less than two frames.
+     */
+    public int getFrameRate(int mode)
+    {
+        int frames = 0;
+        long start = 0;
+        long end = 0;
+        for(int i = 0; i < count; i++)
+            if(modes[i] == mode)
+            {
+                if(frames == 0)
+                    start = timestamp[i];
+                end = timestamp[i];
+                frames++;
+            }
+        if(frames < 2 || end <= start)
+            return 0;
+        return (int)Math.round((frames - 1) * 1e6 / (end - start));
+    }
+
+    /**
+     * Gets the raw pixels of a frame, with rows packed.
+     * @param index The index of the frame.
+     * @return A read only view of the mapped file.
+     */
+    public ByteBuffer getData(int index)
+    {
+        ByteBuffer data = chunks[chunk[index]].duplicate();
+        data.position(offset[index]).limit(offset[index] + length[index]);
+        return data.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Copies a frame into a Mat, allocating the Mat if its size or type differ.
+     * @param index The index of the frame.
+     * @param dst The destination Mat.
+     */
+    public void read(int index, Mat dst)
+    {
+        dst.create(height[index], width[index], type[index]);
+        ByteBuffer data = chunks[chunk[index]].duplicate();
+        data.position(offset[index]).limit(offset[index] + length[index]);
+        NativeMemory.copy(data, 0, dst);
+    }
+//</editor-fold>
+
+//<editor-fold defaultstate="collapsed" desc="Playback">
+    /**
+     * Sets how playback is paced.
+     * @param realtime True to follow the recorded timestamps, false to deliver frames as fast as possible.
+     */
+    public void setRealtime(boolean realtime)
+    {
+        this.realtime = realtime;
+    }
+
+    /**
+     * Sets if playback starts over when it reaches the end of the file.
+     * @param repeat True to loop the recording.
+     */
+    public void setRepeat(boolean repeat)
+    {
+        this.repeat = repeat;
+    }
+
+    /**
+     * Starts delivering frames on a playback thread. A running playback is stopped first.
+     * @param modes The streams to deliver, as Sensor3D flags.
+     * @param listener Receives each frame.
+     */
+    public synchronized void play(int modes, Listener listener)
+    {
+        stop();
+        Thread t = new Thread(() -> run(modes, listener), "StreamPlayer");
+        t.setDaemon(true);
+        thread = t;
+        t.start();
+    }
+
+    /**
+     * Gets a stream of the recording as a FrameSource. Sources share this player, so starting or stopping one restarts the playback of the others from the beginning.
+     * @param mode Sensor3D.RGB, Sensor3D.DEPTH or Sensor3D.IR.
+     * @return The source, or null if the stream was not recorded.
+     */
+    public synchronized FrameSource getSource(int mode)
+    {
+        int index = FrameSet.index(mode);
+        if(sources[index] == null)
+        {
+            int first = first(mode);
+            if(first < 0)
+                return null;
+            sources[index] = new ReplaySource(this, mode, first);
+        }
+        return sources[index];
+    }
+
+    synchronized void start(int mode)
+    {
+        if((sourceModes&mode) == mode && isPlaying())
+            return;
+        sourceModes |= mode;
+        play(sourceModes, this::dispatch);
+    }
+
+    synchronized void stop(int mode)
+    {
+        if((sourceModes&mode) == 0)
+            return;
+        sourceModes &= ~mode;
+        if(sourceModes == 0)
+            stop();
+        else
+            play(sourceModes, this::dispatch);
+    }
+
+    boolean isPlaying(int mode)
+    {
+        return (sourceModes&mode) == mode && isPlaying();
+    }
+
+    private void dispatch(StreamPlayer player, int index)
+    {
+        ReplaySource source = sources[FrameSet.index(modes[index])];
+        if(source != null)
+            source.replay(index);
+    }
+
+    /**
+     * Stops the playback and waits for the frame being delivered, unless called from the listener.
+     */
+    public synchronized void stop()
+    {
+        Thread t = thread;
+        if(t == null)
+            return;
+        thread = null;
+        t.interrupt();
+        if(t == Thread.currentThread())
+            return;
+        boolean interrupted = false;
+        while(t.isAlive())
+        {
+            try
+            {
+                t.join();
+            }
+            catch(InterruptedException e)
+            {
+                interrupted = true;
+            }
+        }
+        if(interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    /**
+     * Checks if frames are being delivered.
+     * @return True while playing.
+     */
+    public boolean isPlaying()
+    {
+        return thread != null;
+    }
+
+    private void run(int modes, Listener listener)
+    {
+        Thread self = Thread.currentThread();
+        do
+        {
+            long start = System.nanoTime();
+            long first = -1;
+            for(int i = 0; i < count && thread == self; i++)
+            {
+                if((modes&this.modes[i]) == 0)
+                    continue;
+                if(first < 0)
+                    first = timestamp[i];
+                if(realtime)
+                {
+                    long due = start + (timestamp[i] - first) * 1000;
+                    long remaining;
+                    while((remaining = due - System.nanoTime()) > 0 && !self.isInterrupted())
+                        LockSupport.parkNanos(remaining);
+                }
+                if(self.isInterrupted())
+                    break;
+                listener.onFrame(this, i);
+            }
+        }
+        while(repeat && thread == self && !self.isInterrupted());
+        if(thread == self)
+            thread = null;
+    }
+//</editor-fold>
+
+    /**
+     * Stops the playback and closes the file. Mapped memory is freed once the buffers are collected.
+     * @throws IOException If the file cannot be closed.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        stop();
+        Arrays.fill(chunks, null);
+        channel.close();
+    }
+}
@@ -0,0 +1,191 @@
+package sensor3D;
+
+import canvas.NativeMemory;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import org.opencv.core.Mat;
+
+/**
+ * Writes sensor frames to a recording file that StreamPlayer can replay.
+ * Frames are copied once into a pooled direct buffer on the calling thread and written to disk by a writer thread, so the sensor thread never waits for the disk.
+ * If the writer falls behind and the pool is empty, frames are dropped and counted.
+ * <p>
+ * The file starts with the magic number and the version, followed by one record per frame, all little endian:
+ * stream (byte), width (int), height (int), OpenCV type (int), timestamp in microseconds (long), sequence (long), payload length (int), payload with packed rows.
+ * @author Ricardo
+ */
+public final class StreamRecorder implements AutoCloseable
+{
+    static final int MAGIC = 0x52443353;
+    static final int VERSION = 1;
+    static final int HEADER = 8;
+    static final int RECORD_HEADER = 1 + 4 + 4 + 4 + 8 + 8 + 4;
+
+    private static final int POOL = 8;
+
+    private final FileChannel channel;
+    private final ArrayBlockingQueue<Record> free = new ArrayBlockingQueue<>(POOL);
+    private final ArrayBlockingQueue<Record> queue = new ArrayBlockingQueue<>(POOL + 1);
+    private final Record end = new Record();
+    private final Thread writer;
+    private final AtomicLong recorded = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile IOException error;
+    private volatile boolean closed;
+
+    /**
+     * Creates a recording file, replacing an existing one.
+     * @param file The path of the file.
+     * @throws IOException If the file cannot be created.
+     */
+    public StreamRecorder(String file) throws IOException
+    {
+        channel = FileChannel.open(Paths.get(file), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        ByteBuffer header = ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).flip();
+        while(header.hasRemaining())
+            channel.write(header);
+
+        for(int i = 0; i < POOL; i++)
+            free.add(new Record());
+        writer = new Thread(this::write, "StreamRecorder " + file);
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Records a frame of a stream.
+     * @param mode Sensor3D.RGB, Sensor3D.DEPTH or Sensor3D.IR.
+     * @param frame The frame to record. It is only read during the call.
+     */
+    public void record(int mode, SensorFrame frame)
+    {
+        record(mode, frame.getMat(), frame.getTimestamp(), frame.getSequence());
+    }
+
+    /**
+     * Records an image of a stream.
+     * @param mode Sensor3D.RGB, Sensor3D.DEPTH or Sensor3D.IR.
+     * @param mat The image to record. It must be continuous and is only read during the call.
+     * @param timestamp The device timestamp in microseconds.
+     * @param sequence The sequence number of the frame.
+     * @return True if the frame was queued, false if it was dropped.
+     */
+    public boolean record(int mode, Mat mat, long timestamp, long sequence)
+    {
+        Record record = closed ? null : free.poll();
+        if(record == null)
+        {
+            dropped.incrementAndGet();
+            return false;
+        }
+
+        int bytes = (int)(mat.total() * mat.elemSize());
+        if(record.payload == null || record.payload.capacity() < bytes)
+            record.payload = ByteBuffer.allocateDirect(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        record.payload.clear().limit(bytes);
+        NativeMemory.copy(mat, record.payload);
+
+        record.header.clear();
+        record.header.put((byte)mode).putInt(mat.cols()).putInt(mat.rows()).putInt(mat.type())
+                .putLong(timestamp).putLong(sequence).putInt(bytes).flip();
+        queue.add(record);
+        return true;
+    }
+
+    /**
+     * Gets the number of frames written to the file.
+     * @return The number of recorded frames.
+     */
+    public long getRecorded()
+    {
+        return recorded.get();
+    }
+
+    /**
+     * Gets the number of frames dropped because the disk could not keep up.
+     * @return The number of dropped frames.
+     */
+    public long getDropped()
+    {
+        return dropped.get();
+    }
+
+    /**
+     * Writes the frames still queued and closes the file.
+     * @throws IOException If a frame could not be written.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        if(closed)
+            return;
+        closed = true;
+        queue.add(end);
+        boolean interrupted = false;
+        while(writer.isAlive())
+        {
+            try
+            {
+                writer.join();
+            }
+            catch(InterruptedException e)
+            {
+                interrupted = true;
+            }
+        }
+        if(interrupted)
+            Thread.currentThread().interrupt();
+        channel.close();
+        if(error != null)
+            throw error;
+    }
+
+    private void write()
+    {
+        ByteBuffer[] buffers = new ByteBuffer[2];
+        while(true)
+        {
+            Record record;
+            try
+            {
+                record = queue.take();
+            }
+            catch(InterruptedException e)
+            {
+                return;
+            }
+            if(record == end)
+                return;
+
+            if(error == null)
+            {
+                buffers[0] = record.header;
+                buffers[1] = record.payload;
+                try
+                {
+                    while(record.payload.hasRemaining())
+                        channel.write(buffers);
+                    recorded.incrementAndGet();
+                }
+                catch(IOException e)
+                {
+                    error = e;
+                }
+            }
+            free.add(record);
+        }
+    }
+
+    private static final class Record
+    {
+        private final ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER).order(ByteOrder.LITTLE_ENDIAN);
+        private ByteBuffer payload;
+    }
+}
@@ -0,0 +1,168 @@
+package sensor3D;
+
+import canvas.FrameScheduler;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+
+/**
+ * A depth camera that needs no hardware. It draws shapes moving in front of a flat background, with optional noise, at any size and rate.
+ * Depth is in the same 100 um units as OpenNI. Frames are timestamped with the time since start, in microseconds.
+ * Useful to load test the processing behind a sensor, for example at several times the real frame rate on a machine without one.
+ * @author Ricardo
+ */
+public class SyntheticSource extends AbstractFrameSource
+{
+    private final FrameScheduler scheduler = new FrameScheduler(this::generate, "SyntheticSource");
+    private volatile int shapes = 3;
+    private volatile int noise;
+    private volatile int near = 5000;
+    private volatile int far = 40000;
+
+    private Mat noiseMat;
+    private long start;
+    private double[] depth = new double[0];
+    private int[] order = new int[0];
+
+    /**
+     * Creates a depth source.
+     * @param width The width in pixels.
+     * @param height The height in pixels.
+     * @param fps The frame rate. Zero runs as fast as possible.
+     */
+    public SyntheticSource(int width, int height, int fps)
+    {
+        super(width, height, fps, CvType.CV_16UC1);
+    }
+
+    /**
+     * Sets how many shapes move in the scene.
+     * @param shapes The number of shapes.
+     */
+    public void setShapes(int shapes)
+    {
+        this.shapes = Math.max(0, shapes);
+    }
+
+    /**
+     * Sets the amplitude of the uniform noise added to every pixel.
+     * @param noise The maximum deviation, in depth units. Zero disables noise.
+     */
+    public void setNoise(int noise)
+    {
+        this.noise = Math.max(0, noise);
+    }
+
+    /**
+     * Sets the depth of the scene. Shapes move between near and far, the background is at far.
+     * @param near The nearest depth, in depth units.
+     * @param far The background depth, in depth units.
+     */
+    public void setRange(int near, int far)
+    {
+        this.near = near;
+        this.far = far;
+    }
+
+    /**
+     * Gets the pacing statistics of the generator thread.
+     * @return The scheduler.
+     */
+    public FrameScheduler getScheduler()
+    {
+        return scheduler;
+    }
+
+    /**
+     * Gets the pinhole model of a camera with the 58x45 degree field of view of PrimeSense sensors, so the depth can be turned into points.
+     * @return The intrinsics at the current size.
+     */
+    @Override
+    public Intrinsics getIntrinsics()
+    {
+        return Intrinsics.fromFieldOfView(getWidth(), getHeight(), Math.toRadians(58), Math.toRadians(45));
+    }
+
+    @Override
+    public synchronized void start()
+    {
+        if(scheduler.isRunning())
+            return;
+        start = System.nanoTime();
+        scheduler.start(getFrameRate(), FrameScheduler.Policy.FIXED_RATE);
+    }
+
+    @Override
+    public synchronized void stop()
+    {
+        scheduler.stop();
+    }
+
+    @Override
+    public boolean isRunning()
+    {
+        return scheduler.isRunning();
+    }
+
+    private void generate()
+    {
+        SensorFrame frame = claim();
+        if(frame == null)
+            return;
+        long now = System.nanoTime() - start;
+        draw(frame.getMat(), now / 1e9);
+        publish(frame, now / 1000);
+    }
+
+    private void draw(Mat image, double t)
+    {
+        int width = image.cols();
+        int height = image.rows();
+        int count = shapes;
+        image.setTo(new Scalar(far));
+
+        if(depth.length < count)
+        {
+            depth = new double[count];
+            order = new int[count];
+        }
+        for(int k = 0; k < count; k++)
+        {
+            depth[k] = near + (far - near) * (0.5 + 0.4 * Math.sin(t * (0.3 + 0.11 * k) + k));
+            order[k] = k;
+        }
+        for(int i = 1; i < count; i++)
+            for(int j = i; j > 0 && depth[order[j - 1]] < depth[order[j]]; j--)
+            {
+                int aux = order[j];
+                order[j] = order[j - 1];
+                order[j - 1] = aux;
+            }
+
+        int size = Math.min(width, height) / 8;
+        for(int i = 0; i < count; i++)
+        {
+            int k = order[i];
+            double x = width * (0.5 + 0.35 * Math.sin(t * (0.7 + 0.13 * k) + 2 * k));
+            double y = height * (0.5 + 0.35 * Math.cos(t * (0.5 + 0.17 * k) + 3 * k));
+            int r = size * (2 + k % 3) / 2;
+            Scalar color = new Scalar(depth[k]);
+            if(k % 2 == 0)
+                Core.circle(image, new Point(x, y), r, color, -1);
+            else
+                Core.rectangle(image, new Point(x - r, y - r), new Point(x + r, y + r), color, -1);
+        }
+
+        int n = noise;
+        if(n > 0)
+        {
+            if(noiseMat == null || noiseMat.rows() != height || noiseMat.cols() != width)
+                noiseMat = new Mat(height, width, CvType.CV_16UC1);
+            Core.randu(noiseMat, 0, 2 * n + 1);
+            Core.add(image, noiseMat, image);
+            Core.subtract(image, new Scalar(n), image);
+        }
+    }
+}